@@ -0,0 +1,158 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncSQLHelper {
+
+	private SQLHelper sql;
+	private ExecutorService executor;
+	private AtomicInteger inFlight;
+
+	/**
+	 * A unit of work run against the wrapped SQLHelper on one of the executor's threads.
+	 */
+	public interface SQLCall<T> {
+		/**
+		 * Run the work.
+		 * @param sql the SQLHelper to query.
+		 * @return the result that completes the future.
+		 * @throws SQLException if the work fails, which completes the future exceptionally.
+		 */
+		T call(SQLHelper sql) throws SQLException;
+	}
+
+	/**
+	 * Default constructor to run queries concurrently, one per connection of the helper's pool.
+	 * @param helper the SQLHelper whose pool the queries borrow from.
+	 */
+	public AsyncSQLHelper(SQLHelper helper) {
+		this(helper, helper.getPool().getMaxSize());
+	}
+
+	/**
+	 * Constructor to run at most the given number of queries at once.  Each running query holds one pooled connection and later queries wait in line, so the cap should not exceed the pool's maximum size or queries will wait on the pool's borrow timeout instead.
+	 * @param helper the SQLHelper whose pool the queries borrow from.
+	 * @param maxConcurrent the number of queries that may run at once.
+	 */
+	public AsyncSQLHelper(SQLHelper helper, int maxConcurrent) {
+		sql = helper;
+		inFlight = new AtomicInteger();
+		executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AsyncSQLHelper-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Get the SQLHelper that runs the queries.
+	 * @return the SQLHelper
+	 */
+	public SQLHelper getHelper() {
+		return sql;
+	}
+
+	/**
+	 * @return the number of calls submitted but not yet finished, whether running or waiting
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Run the given work on the executor.
+	 * @param call the work to run.
+	 * @return a future completed with the work's result, or exceptionally with the <code>SQLException</code> or other exception it threw.
+	 */
+	public <T> CompletableFuture<T> submit(final SQLCall<T> call) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		inFlight.incrementAndGet();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if(!result.isCancelled()) {
+							result.complete(call.call(sql));
+						}
+					} catch (Throwable t) {
+						result.completeExceptionally(t);
+					} finally {
+						inFlight.decrementAndGet();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.decrementAndGet();
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Run a custom SQL query with <code>?</code> placeholders for its values.
+	 * @param query the SQL query to execute.
+	 * @param params the values bound to the placeholders, in order.
+	 * @return a future of the disconnected results, or of <code>null</code> if the statement did not produce any.
+	 */
+	public CompletableFuture<ResultSet> query(final String query, final Object... params) {
+		return submit(new SQLCall<ResultSet>() {
+			public ResultSet call(SQLHelper sql) throws SQLException {
+				return sql.query(query, params);
+			}
+		});
+	}
+
+	/**
+	 * Select the given columns from the given table.
+	 * @param colNames the names of the columns you wish to select.
+	 * @param table the table containing the columns you wish to select.
+	 * @return a future of the disconnected results.
+	 */
+	public CompletableFuture<ResultSet> select(final String[] colNames, final String table) {
+		return submit(new SQLCall<ResultSet>() {
+			public ResultSet call(SQLHelper sql) throws SQLException {
+				return sql.select(colNames, table);
+			}
+		});
+	}
+
+	/**
+	 * Insert many rows in batches.
+	 * @param table the table into which you wish to insert the given rows.
+	 * @param colNames the names of the columns into which you wish to insert values.
+	 * @param rows the rows to insert, each holding one value per column.
+	 * @return a future of the number of rows inserted.
+	 */
+	public CompletableFuture<Integer> insertBatch(final String table, final String[] colNames, final Iterable<Object[]> rows) {
+		return submit(new SQLCall<Integer>() {
+			public Integer call(SQLHelper sql) throws SQLException {
+				return sql.insertBatch(table, colNames, rows);
+			}
+		});
+	}
+
+	/**
+	 * Stop accepting calls.  Calls already submitted still run.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,365 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+public class ColumnarFile {
+
+	public static final int magic = 0x46434f4c;	// "FCOL"
+	public static final int version = 1;
+	public static final byte typeLong = 1;
+	public static final byte typeDouble = 2;
+	public static final byte typeString = 3;	// dictionary-encoded: each value is an int code into the column's dictionary
+	public static final long missingLong = Long.MIN_VALUE;	// a real Long.MIN_VALUE cannot be told apart from a missing value and reads back as missing
+	public static final int missingCode = -1;
+	public static final int segmentRows = 1 << 26;	// rows per mapping when reading a column in segments; 512 MB of longs or doubles
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	private File file;
+	private FileChannel channel;
+	private long rows;
+	private String[] names;
+	private byte[] types;
+	private long[] offsets;
+	private long[] lengths;
+	private long[] mins;
+	private long[] maxes;
+	private long[] dictOffsets;
+	private int[] dictCounts;
+
+	/**
+	 * Default constructor to open a columnar file written by <code>ColumnarWriter</code>.  Only the header is read; column data is memory-mapped when a column is requested.
+	 * @param f the columnar file.
+	 * @throws IOException if the file cannot be read or is not a columnar file.
+	 */
+	public ColumnarFile(File f) throws IOException {
+		file = f;
+		DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(header.readInt() != magic) {
+				throw new IOException(file.getPath() + " is not a columnar file");
+			}
+			if(header.readInt() != version) {
+				throw new IOException(file.getPath() + " has an unsupported columnar version");
+			}
+			rows = header.readLong();
+			int cols = header.readInt();
+			names = new String[cols];
+			types = new byte[cols];
+			offsets = new long[cols];
+			lengths = new long[cols];
+			mins = new long[cols];
+			maxes = new long[cols];
+			dictOffsets = new long[cols];
+			dictCounts = new int[cols];
+			for(int c = 0; c < cols; c++) {
+				byte[] name = new byte[header.readUnsignedShort()];
+				header.readFully(name);
+				names[c] = new String(name, utf8);
+				types[c] = header.readByte();
+				offsets[c] = header.readLong();
+				lengths[c] = header.readLong();
+				mins[c] = header.readLong();
+				maxes[c] = header.readLong();
+				dictOffsets[c] = header.readLong();
+				dictCounts[c] = header.readInt();
+			}
+		} finally {
+			header.close();
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Check whether the given file is a columnar file.
+	 * @param f the file.
+	 * @return true if the file starts with the columnar signature.
+	 */
+	public static boolean isColumnar(File f) {
+		if(!f.isFile() || f.length() < 4) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try {
+				return in.readInt() == magic;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public long getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * @return the column names
+	 */
+	public String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * Find a column by name.
+	 * @param name the column name.
+	 * @return the index of the column, or -1 if there is no such column.
+	 */
+	public int indexOf(String name) {
+		for(int c = 0; c < names.length; c++) {
+			if(names[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the type of a column.
+	 * @param c the index of the column.
+	 * @return <code>typeLong</code>, <code>typeDouble</code> or <code>typeString</code>.
+	 */
+	public byte getType(int c) {
+		return types[c];
+	}
+
+	/**
+	 * Get the smallest value in a numeric column, ignoring missing values.
+	 * @param c the index of the column.
+	 * @return the minimum, or positive infinity if every value is missing.
+	 */
+	public double getMin(int c) {
+		if(types[c] == typeDouble) {
+			return Double.longBitsToDouble(mins[c]);
+		}
+		return (mins[c] == Long.MAX_VALUE) ? Double.POSITIVE_INFINITY : mins[c];
+	}
+
+	/**
+	 * Get the largest value in a numeric column, ignoring missing values.
+	 * @param c the index of the column.
+	 * @return the maximum, or negative infinity if every value is missing.
+	 */
+	public double getMax(int c) {
+		if(types[c] == typeDouble) {
+			return Double.longBitsToDouble(maxes[c]);
+		}
+		return (maxes[c] == Long.MIN_VALUE) ? Double.NEGATIVE_INFINITY : maxes[c];
+	}
+
+	/**
+	 * Map a <code>typeLong</code> column.  Missing values are <code>missingLong</code>, so a stored <code>Long.MIN_VALUE</code> also reads as missing.
+	 * @param c the index of the column.
+	 * @return a read-only view of the column backed directly by the file.
+	 * @throws IOException if the column cannot be mapped, e.g. because it is over 2 GB; read such columns in segments.
+	 */
+	public LongBuffer getLongs(int c) throws IOException {
+		return getLongs(c, 0, whole(c, 8));
+	}
+
+	/**
+	 * Map a segment of a <code>typeLong</code> column.  Columns too large to map in one piece can be read <code>segmentRows</code> rows at a time.
+	 * @param c the index of the column.
+	 * @param from the first row of the segment.
+	 * @param count the number of rows in the segment.
+	 * @return a read-only view of the segment backed directly by the file.
+	 * @throws IOException if the segment cannot be mapped.
+	 */
+	public LongBuffer getLongs(int c, long from, int count) throws IOException {
+		check(c, typeLong);
+		return map(c, from, count, 8).asLongBuffer();
+	}
+
+	/**
+	 * Map a <code>typeDouble</code> column.  Missing values are <code>NaN</code>.
+	 * @param c the index of the column.
+	 * @return a read-only view of the column backed directly by the file.
+	 * @throws IOException if the column cannot be mapped, e.g. because it is over 2 GB; read such columns in segments.
+	 */
+	public DoubleBuffer getDoubles(int c) throws IOException {
+		return getDoubles(c, 0, whole(c, 8));
+	}
+
+	/**
+	 * Map a segment of a <code>typeDouble</code> column.
+	 * @param c the index of the column.
+	 * @param from the first row of the segment.
+	 * @param count the number of rows in the segment.
+	 * @return a read-only view of the segment backed directly by the file.
+	 * @throws IOException if the segment cannot be mapped.
+	 */
+	public DoubleBuffer getDoubles(int c, long from, int count) throws IOException {
+		check(c, typeDouble);
+		return map(c, from, count, 8).asDoubleBuffer();
+	}
+
+	/**
+	 * Map the dictionary codes of a <code>typeString</code> column.  Missing values are <code>missingCode</code>.
+	 * @param c the index of the column.
+	 * @return a read-only view of the column backed directly by the file.
+	 * @throws IOException if the column cannot be mapped, e.g. because it is over 2 GB; read such columns in segments.
+	 */
+	public IntBuffer getCodes(int c) throws IOException {
+		return getCodes(c, 0, whole(c, 4));
+	}
+
+	/**
+	 * Map a segment of the dictionary codes of a <code>typeString</code> column.
+	 * @param c the index of the column.
+	 * @param from the first row of the segment.
+	 * @param count the number of rows in the segment.
+	 * @return a read-only view of the segment backed directly by the file.
+	 * @throws IOException if the segment cannot be mapped.
+	 */
+	public IntBuffer getCodes(int c, long from, int count) throws IOException {
+		check(c, typeString);
+		return map(c, from, count, 4).asIntBuffer();
+	}
+
+	/**
+	 * Read the dictionary of a <code>typeString</code> column.
+	 * @param c the index of the column.
+	 * @return the distinct values of the column, indexed by code.
+	 * @throws IOException if the dictionary cannot be read.
+	 */
+	public String[] getDictionary(int c) throws IOException {
+		check(c, typeString);
+		String[] dict = new String[dictCounts[c]];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			long skip = dictOffsets[c];
+			while(skip > 0) {
+				skip -= in.skip(skip);
+			}
+			for(int i = 0; i < dict.length; i++) {
+				byte[] b = new byte[in.readInt()];
+				in.readFully(b);
+				dict[i] = new String(b, utf8);
+			}
+		} finally {
+			in.close();
+		}
+		return dict;
+	}
+
+	/**
+	 * Copy a numeric column into an array, widening longs to doubles.  Missing values become <code>NaN</code>.
+	 * @param c the index of the column.
+	 * @return the column's values.
+	 * @throws IOException if the column cannot be mapped.
+	 */
+	public double[] getDoubleArray(int c) throws IOException {
+		double[] values = new double[arrayLength()];
+		for(int from = 0; from < values.length; from += segmentRows) {
+			int count = Math.min(segmentRows, values.length - from);
+			if(types[c] == typeDouble) {
+				getDoubles(c, from, count).get(values, from, count);
+			} else {
+				LongBuffer longs = getLongs(c, from, count);
+				for(int i = 0; i < count; i++) {
+					long l = longs.get(i);
+					values[from + i] = (l == missingLong) ? Double.NaN : l;
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Decode every value of a column as a string.  Missing values become empty strings.
+	 * @param c the index of the column.
+	 * @return the column's values.
+	 * @throws IOException if the column cannot be mapped.
+	 */
+	public String[] getStringArray(int c) throws IOException {
+		String[] values = new String[arrayLength()];
+		String[] dict = (types[c] == typeString) ? getDictionary(c) : null;
+		for(int from = 0; from < values.length; from += segmentRows) {
+			int count = Math.min(segmentRows, values.length - from);
+			if(types[c] == typeString) {
+				IntBuffer codes = getCodes(c, from, count);
+				for(int i = 0; i < count; i++) {
+					int code = codes.get(i);
+					values[from + i] = (code == missingCode) ? "" : dict[code];
+				}
+			} else if(types[c] == typeDouble) {
+				DoubleBuffer doubles = getDoubles(c, from, count);
+				for(int i = 0; i < count; i++) {
+					double d = doubles.get(i);
+					values[from + i] = Double.isNaN(d) ? "" : Double.toString(d);
+				}
+			} else {
+				LongBuffer longs = getLongs(c, from, count);
+				for(int i = 0; i < count; i++) {
+					long l = longs.get(i);
+					values[from + i] = (l == missingLong) ? "" : Long.toString(l);
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Close the file.  Buffers already mapped remain valid.
+	 * @throws IOException if the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void check(int c, byte type) {
+		if(types[c] != type) {
+			throw new IllegalArgumentException("Column " + names[c] + " is of type " + types[c] + ", not " + type);
+		}
+	}
+
+	/**
+	 * Get the number of rows of a column that fit in one mapping, which is all of them unless the column is over 2 GB.
+	 */
+	private int whole(int c, int width) throws IOException {
+		if(rows * width > Integer.MAX_VALUE) {
+			throw new IOException("Column " + names[c] + " is too large to map in one piece; read it in segments of at most " + segmentRows + " rows");
+		}
+		return (int) rows;
+	}
+
+	private int arrayLength() throws IOException {
+		if(rows > Integer.MAX_VALUE - 8) {
+			throw new IOException(file.getPath() + " has too many rows to copy into an array; read its columns in segments");
+		}
+		return (int) rows;
+	}
+
+	private ByteBuffer map(int c, long from, int count, int width) throws IOException {
+		if(from < 0 || count < 0 || from + count > rows) {
+			throw new IndexOutOfBoundsException("Rows " + from + " to " + (from + count) + " of column " + names[c] + ", which has " + rows);
+		}
+		if((from + count) * width > lengths[c]) {
+			throw new IOException("Column " + names[c] + " of " + file.getPath() + " is shorter than its row count");
+		}
+		if((long) count * width > Integer.MAX_VALUE) {
+			throw new IOException("Segment of " + count + " rows of column " + names[c] + " is too large to map in one piece");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offsets[c] + from * width, (long) count * width);
+	}
+
+}
@@ -0,0 +1,288 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class ColumnarWriter {
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	private File output;
+	private String[] names;
+	private byte[] types;
+	private File[] spills;
+	private DataOutputStream[] columns;
+	private long rows;
+	private long[] minLong;
+	private long[] maxLong;
+	private double[] minDouble;
+	private double[] maxDouble;
+	private ArrayList<HashMap<String, Integer>> codes;
+	private ArrayList<ArrayList<String>> dictionaries;
+
+	/**
+	 * Default constructor to write a columnar file with the given columns.  Each column is spooled to its own temporary file beside the output while records are added, so memory use does not grow with the number of rows (except for the dictionaries of string columns).
+	 * @param out the columnar file to create.
+	 * @param n the names of the columns.
+	 * @param t the type of each column: <code>ColumnarFile.typeLong</code>, <code>typeDouble</code> or <code>typeString</code>.
+	 * @param bufferSize the size in bytes of the buffer for each column.
+	 * @throws IOException if the temporary files cannot be created.
+	 */
+	public ColumnarWriter(File out, String[] n, byte[] t, int bufferSize) throws IOException {
+		output = out;
+		names = n;
+		types = t;
+		spills = new File[names.length];
+		columns = new DataOutputStream[names.length];
+		minLong = new long[names.length];
+		maxLong = new long[names.length];
+		minDouble = new double[names.length];
+		maxDouble = new double[names.length];
+		codes = new ArrayList<HashMap<String, Integer>>();
+		dictionaries = new ArrayList<ArrayList<String>>();
+		for(int c = 0; c < names.length; c++) {
+			spills[c] = File.createTempFile(output.getName() + "." + c + ".", ".col", output.getAbsoluteFile().getParentFile());
+			columns[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spills[c]), bufferSize));
+			minLong[c] = Long.MAX_VALUE;
+			maxLong[c] = Long.MIN_VALUE;
+			minDouble[c] = Double.POSITIVE_INFINITY;
+			maxDouble[c] = Double.NEGATIVE_INFINITY;
+			codes.add(new HashMap<String, Integer>());
+			dictionaries.add(new ArrayList<String>());
+		}
+	}
+
+	/**
+	 * Widen a column's type so that it can hold the given field.  Columns start as <code>typeLong</code> and only ever widen to <code>typeDouble</code> and then <code>typeString</code>.  Empty fields are missing values and never widen a column.
+	 * @param type the column's type so far.
+	 * @param record the tokenizer positioned at a record.
+	 * @param i the index of the field in the record.
+	 * @return the column's new type.
+	 */
+	public static byte widen(byte type, DelimitedTokenizer record, int i) {
+		if(i >= record.getFieldCount() || record.getFieldLength(i) == 0 || type == ColumnarFile.typeString) {
+			return type;
+		}
+		if(type == ColumnarFile.typeLong && record.isLong(i)) {
+			return type;
+		}
+		try {
+			record.getDouble(i);
+			return ColumnarFile.typeDouble;
+		} catch (NumberFormatException e) {
+			return ColumnarFile.typeString;
+		}
+	}
+
+	/**
+	 * Append the current record of the given tokenizer.  Missing and empty fields are stored as <code>ColumnarFile.missingLong</code>, <code>NaN</code> or <code>ColumnarFile.missingCode</code>.
+	 * @param record the tokenizer positioned at the record.
+	 * @param projection the index in the record of each column, or <code>null</code> if column <i>k</i> is field <i>k</i>.
+	 * @throws IOException if a column cannot be written.
+	 */
+	public void add(DelimitedTokenizer record, int[] projection) throws IOException {
+		for(int c = 0; c < names.length; c++) {
+			int i = (projection == null) ? c : projection[c];
+			boolean missing = i >= record.getFieldCount() || record.getFieldLength(i) == 0;
+			switch(types[c]) {
+			case ColumnarFile.typeLong:
+				long l = missing ? ColumnarFile.missingLong : record.getLong(i);
+				if(!missing) {
+					minLong[c] = Math.min(minLong[c], l);
+					maxLong[c] = Math.max(maxLong[c], l);
+				}
+				columns[c].writeLong(l);
+				break;
+			case ColumnarFile.typeDouble:
+				double d = missing ? Double.NaN : record.getDouble(i);
+				if(!Double.isNaN(d)) {
+					minDouble[c] = Math.min(minDouble[c], d);
+					maxDouble[c] = Math.max(maxDouble[c], d);
+				}
+				columns[c].writeDouble(d);
+				break;
+			default:
+				int code = ColumnarFile.missingCode;
+				if(!missing) {
+					String s = record.getString(i);
+					Integer known = codes.get(c).get(s);
+					if(known == null) {
+						known = dictionaries.get(c).size();
+						codes.get(c).put(s, known);
+						dictionaries.get(c).add(s);
+					}
+					code = known;
+				}
+				columns[c].writeInt(code);
+				break;
+			}
+		}
+		rows++;
+	}
+
+	/**
+	 * Append a record of values, e.g. a row read from a database.  <code>null</code> values are stored as missing; numbers are converted to the column's type and anything else is parsed from its string form.  A <code>Long.MIN_VALUE</code> in a <code>typeLong</code> column is the same as <code>ColumnarFile.missingLong</code> and reads back as missing.
+	 * @param values the value of each column.
+	 * @throws IOException if a column cannot be written.
+	 * @throws NumberFormatException if a value does not fit a numeric column.
+	 */
+	public void add(Object[] values) throws IOException {
+		for(int c = 0; c < names.length; c++) {
+			Object v = (c < values.length) ? values[c] : null;
+			switch(types[c]) {
+			case ColumnarFile.typeLong:
+				long l = ColumnarFile.missingLong;
+				if(v != null) {
+					l = (v instanceof Number) ? ((Number) v).longValue() : Long.parseLong(v.toString().trim());
+					minLong[c] = Math.min(minLong[c], l);
+					maxLong[c] = Math.max(maxLong[c], l);
+				}
+				columns[c].writeLong(l);
+				break;
+			case ColumnarFile.typeDouble:
+				double d = Double.NaN;
+				if(v != null) {
+					d = (v instanceof Number) ? ((Number) v).doubleValue() : Double.parseDouble(v.toString().trim());
+				}
+				if(!Double.isNaN(d)) {
+					minDouble[c] = Math.min(minDouble[c], d);
+					maxDouble[c] = Math.max(maxDouble[c], d);
+				}
+				columns[c].writeDouble(d);
+				break;
+			default:
+				int code = ColumnarFile.missingCode;
+				if(v != null) {
+					String s = v.toString();
+					Integer known = codes.get(c).get(s);
+					if(known == null) {
+						known = dictionaries.get(c).size();
+						codes.get(c).put(s, known);
+						dictionaries.get(c).add(s);
+					}
+					code = known;
+				}
+				columns[c].writeInt(code);
+				break;
+			}
+		}
+		rows++;
+	}
+
+	/**
+	 * Assemble the header, the column data and the string dictionaries into the output file and delete the temporary files.
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void close() throws IOException {
+		try {
+			for(DataOutputStream col : columns) {
+				col.close();
+			}
+
+			// the header holds every column's offset, so lay out the sections before writing it
+			int headerSize = 4 + 4 + 8 + 4;
+			byte[][] nameBytes = new byte[names.length][];
+			for(int c = 0; c < names.length; c++) {
+				nameBytes[c] = names[c].getBytes(utf8);
+				headerSize += 2 + nameBytes[c].length + 1 + 8 + 8 + 8 + 8 + 8 + 4;
+			}
+			long[] offsets = new long[names.length];
+			long pos = align(headerSize);
+			for(int c = 0; c < names.length; c++) {
+				offsets[c] = pos;
+				pos = align(pos + spills[c].length());
+			}
+			long[] dictOffsets = new long[names.length];
+			for(int c = 0; c < names.length; c++) {
+				dictOffsets[c] = pos;
+				for(String s : dictionaries.get(c)) {
+					pos += 4 + s.getBytes(utf8).length;
+				}
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			header.putInt(ColumnarFile.magic);
+			header.putInt(ColumnarFile.version);
+			header.putLong(rows);
+			header.putInt(names.length);
+			for(int c = 0; c < names.length; c++) {
+				header.putShort((short) nameBytes[c].length);
+				header.put(nameBytes[c]);
+				header.put(types[c]);
+				header.putLong(offsets[c]);
+				header.putLong(spills[c].length());
+				if(types[c] == ColumnarFile.typeDouble) {
+					header.putLong(Double.doubleToLongBits(minDouble[c]));
+					header.putLong(Double.doubleToLongBits(maxDouble[c]));
+				} else {
+					header.putLong(minLong[c]);
+					header.putLong(maxLong[c]);
+				}
+				header.putLong(dictOffsets[c]);
+				header.putInt(dictionaries.get(c).size());
+			}
+			header.flip();
+
+			FileChannel writer = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			try {
+				while(header.hasRemaining()) {
+					writer.write(header);
+				}
+				for(int c = 0; c < names.length; c++) {
+					// transferFrom never writes past the end of the file, so pad up to the aligned offset first
+					long gap = offsets[c] - writer.size();
+					if(gap > 0) {
+						writer.write(ByteBuffer.allocate((int) gap), writer.size());
+					}
+					FileChannel col = FileChannel.open(spills[c].toPath(), StandardOpenOption.READ);
+					try {
+						long done = 0;
+						long size = col.size();
+						while(done < size) {
+							done += writer.transferFrom(col, offsets[c] + done, size - done);
+						}
+					} finally {
+						col.close();
+					}
+				}
+				if(names.length > 0) {
+					writer.position(dictOffsets[0]);
+					DataOutputStream dict = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(writer)));
+					for(int c = 0; c < names.length; c++) {
+						for(String s : dictionaries.get(c)) {
+							byte[] b = s.getBytes(utf8);
+							dict.writeInt(b.length);
+							dict.write(b);
+						}
+					}
+					dict.flush();
+				}
+			} finally {
+				writer.close();
+			}
+		} finally {
+			for(File spill : spills) {
+				spill.delete();
+			}
+		}
+	}
+
+	private static long align(long pos) {
+		return (pos + 7) & ~7L;
+	}
+
+}
@@ -0,0 +1,173 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class CompressedFiles {
+
+	public enum Format { NONE, GZIP, DEFLATE, ZIP }
+
+	/**
+	 * Guess the compression format of a file from its extension: <code>.gz</code>, <code>.zz</code> or <code>.deflate</code>, and <code>.zip</code>.
+	 * @param f the file.
+	 * @return the format implied by the file's name.
+	 */
+	public static Format forName(File f) {
+		String name = f.getName().toLowerCase();
+		if(name.endsWith(".gz") || name.endsWith(".gzip")) {
+			return Format.GZIP;
+		} else if(name.endsWith(".zz") || name.endsWith(".deflate")) {
+			return Format.DEFLATE;
+		} else if(name.endsWith(".zip")) {
+			return Format.ZIP;
+		}
+		return Format.NONE;
+	}
+
+	/**
+	 * Detect the compression format of an existing file from its first bytes, falling back on its extension for zlib streams, which have no reliable signature.
+	 * @param f the file.
+	 * @return the format of the file's contents.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static Format detect(File f) throws IOException {
+		byte[] magic = new byte[4];
+		int n = 0;
+		InputStream in = new FileInputStream(f);
+		try {
+			int r = 0;
+			while(n < magic.length && (r = in.read(magic, n, magic.length - n)) > 0) {
+				n += r;
+			}
+		} finally {
+			in.close();
+		}
+		if(n >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+			return Format.GZIP;
+		} else if(n >= 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+			return Format.ZIP;
+		}
+		return forName(f) == Format.DEFLATE ? Format.DEFLATE : Format.NONE;
+	}
+
+	/**
+	 * Open a file for reading, decompressing it transparently.  Multi-member gzip files are read as one stream and only the first entry of a zip file is read.
+	 * @param f the file.
+	 * @param bufferSize the size in bytes of the buffer between the file and the decompressor.
+	 * @return a channel of the uncompressed contents.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public static ReadableByteChannel openInput(File f, int bufferSize) throws IOException {
+		Format format = detect(f);
+		if(format == Format.NONE) {
+			return FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		}
+		InputStream in = new FileInputStream(f);
+		try {
+			switch(format) {
+			case GZIP:
+				return Channels.newChannel(new GZIPInputStream(in, bufferSize));
+			case DEFLATE:
+				return Channels.newChannel(new InflaterInputStream(new BufferedInputStream(in, bufferSize)));
+			default:
+				ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, bufferSize));
+				if(zip.getNextEntry() == null) {
+					throw new IOException(f.getPath() + " is an empty zip file");
+				}
+				return Channels.newChannel(zip);
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open a file for writing, compressing it in the format implied by its extension.  Gzip output is compressed in parallel blocks; a zip file gets one entry named after the file without its extension.
+	 * @param f the file, which is truncated if it exists.
+	 * @param bufferSize the size in bytes of the buffer between the compressor and the file.
+	 * @param threads the number of threads compressing gzip blocks.
+	 * @return a channel that compresses everything written to it.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public static WritableByteChannel openOutput(File f, int bufferSize, int threads) throws IOException {
+		return openOutput(f, forName(f), bufferSize, threads);
+	}
+
+	/**
+	 * Open a file for writing, compressing it in the given format.
+	 * @param f the file, which is truncated if it exists.
+	 * @param format the compression format.
+	 * @param bufferSize the size in bytes of the buffer between the compressor and the file.
+	 * @param threads the number of threads compressing gzip blocks; 1 compresses on the calling thread.
+	 * @return a channel that compresses everything written to it.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public static WritableByteChannel openOutput(File f, Format format, int bufferSize, int threads) throws IOException {
+		return openOutput(f, format, bufferSize, threads, false);
+	}
+
+	/**
+	 * Open a file for writing or appending, compressing it in the given format.  Appending to a gzip file adds a new member, which gzip readers treat as a continuation of the same stream; zlib and zip files cannot be appended to.
+	 * @param f the file.
+	 * @param format the compression format.
+	 * @param bufferSize the size in bytes of the buffer between the compressor and the file.
+	 * @param threads the number of threads compressing gzip blocks; 1 compresses on the calling thread.
+	 * @param append true to add to the end of an existing file; false to truncate it.
+	 * @return a channel that compresses everything written to it.
+	 * @throws IOException if the file cannot be opened or cannot be appended to in the given format.
+	 */
+	public static WritableByteChannel openOutput(File f, Format format, int bufferSize, int threads, boolean append) throws IOException {
+		if(format == Format.NONE) {
+			if(append) {
+				return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			}
+			return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+		if(append && format != Format.GZIP) {
+			throw new IOException("Cannot append to " + format + " file " + f.getPath());
+		}
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(f, append), bufferSize);
+		switch(format) {
+		case GZIP:
+			if(threads > 1) {
+				return Channels.newChannel(new ParallelGZIPOutputStream(out, threads, ParallelGZIPOutputStream.defaultBlockSize, Deflater.DEFAULT_COMPRESSION));
+			}
+			return Channels.newChannel(new GZIPOutputStream(out, bufferSize));
+		case DEFLATE:
+			return Channels.newChannel(new DeflaterOutputStream(out));
+		default:
+			ZipOutputStream zip = new ZipOutputStream(out);
+			String name = f.getName();
+			if(name.toLowerCase().endsWith(".zip")) {
+				name = name.substring(0, name.length() - ".zip".length());
+			}
+			zip.putNextEntry(new ZipEntry(name));
+			return Channels.newChannel(zip);
+		}
+	}
+
+}
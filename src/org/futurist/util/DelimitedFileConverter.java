@@ -1,58 +1,537 @@
 /**
  * @author Steven L. Moxley
- * @version 1.0
+ * @version 1.1
  */
 package org.futurist.util;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class DelimitedFileConverter {
 
+	public static final int defaultBufferSize = 4 * 1024 * 1024;	// 4 MB, large enough that each read or write is a single sequential disk request
+	public static final long defaultChunkSize = 256L * 1024 * 1024;	// 256 MB per parallel chunk
+	public static final int defaultMaxOpenPartitions = 64;
+	private static final int partitionBufferSize = 256 * 1024;	// smaller than the main buffers since many partitions are open at once
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final long maxChunkSize = Integer.MAX_VALUE / 2;	// a chunk plus the rest of its last record must fit in one mapping
+	private static final byte quote = '"';
+
+	// the states of DelimitedTokenizer's parser, tracked when splitting the input into chunks
+	private static final int fieldStart = 0;
+	private static final int unquoted = 1;
+	private static final int quoted = 2;
+	private static final int quoteInQuoted = 3;
+	private static final int afterQuoted = 4;
+	private static final int states = 5;
+	private static final int recordEnd = -1;	// returned by step() for a line break that ends a record
+
 	private File input;
 	private String inDelimit;
 	private File output;
 	private String outDelimit;
+	private byte[] inBytes;
+	private byte[] outBytes;
+	private byte[] lineBytes;
+	private int bufferSize;
+	private long chunkSize;
+	private boolean header;
+	private int[] projection;
+	private String[] projectionNames;
+	private RecordFilter filter;
+	private long checkpointInterval;
+	private int partitionColumn;
+	private String partitionName;
+	private int partitionBuckets;
+	private int maxOpenPartitions;
 
 	/**
-	 * Default constructor that takes an existing file originally delimited with the given string and writes its contents to a new file with another given string delimiter. 
+	 * Default constructor that takes an existing file originally delimited with the given string and writes its contents to a new file with another given string delimiter.
 	 * @param inFile the existing file (including its extension) originally delimited with the given string
 	 * @param inDelimiter the string delimiter for the given existing file
 	 * @param outFile the name of the new file to create (including its extension)
 	 * @param outDelimiter the string delimiter for the new file to be created
 	 */
 	public DelimitedFileConverter(String inFile, String inDelimiter, String outFile, String outDelimiter) {
+		if(inDelimiter.isEmpty() || outDelimiter.isEmpty()) {
+			throw new IllegalArgumentException("Delimiters must not be empty");
+		}
 		input = new File(inFile);
 		inDelimit = inDelimiter;
 		output = new File(outFile);
 		outDelimit = outDelimiter;
+		inBytes = inDelimit.getBytes(utf8);
+		outBytes = outDelimit.getBytes(utf8);
+		lineBytes = "\r\n".getBytes(utf8);
+		bufferSize = defaultBufferSize;
+		chunkSize = defaultChunkSize;
+		partitionColumn = -1;
+		maxOpenPartitions = defaultMaxOpenPartitions;
+	}
+
+	/**
+	 * Set the string written after each record.
+	 * @param separator the line separator, <code>\r\n</code> by default as in RFC 4180.
+	 */
+	public void setLineSeparator(String separator) {
+		lineBytes = separator.getBytes(utf8);
+	}
+
+	/**
+	 * Treat the first record of the input as a header.  The header is projected like any other record but is always written, never filtered.
+	 * @param hasHeader true if the first record is a header.
+	 */
+	public void setHeader(boolean hasHeader) {
+		header = hasHeader;
+	}
+
+	/**
+	 * Only write the given columns, in the given order.  Other fields are skipped without ever being decoded.
+	 * @param columns the zero-based indices of the input columns to write, or <code>null</code> to write every column.
+	 */
+	public void setProjection(int... columns) {
+		projection = columns;
+		projectionNames = null;
+	}
+
+	/**
+	 * Only write the columns with the given header names, in the given order.  This implies that the first record is a header.
+	 * @param names the names of the input columns to write.
+	 */
+	public void setProjection(String... names) {
+		projection = null;
+		projectionNames = names;
+		header = true;
+	}
+
+	/**
+	 * Only write records accepted by the given filter.  The filter is given the tokenized input record before projection, so it can test any input column.
+	 * @param f the record filter, or <code>null</code> to write every record.
+	 */
+	public void setFilter(RecordFilter f) {
+		filter = f;
+	}
+
+	/**
+	 * Decides whether a record is converted.
+	 */
+	public interface RecordFilter {
+
+		/**
+		 * Check the current record of the given tokenizer.  Fields should be compared as slices of <code>getBuffer()</code> or with <code>fieldEquals</code> where possible to avoid decoding them.
+		 * @param record the tokenizer positioned at the record.
+		 * @return true if the record should be written.
+		 */
+		public boolean accept(DelimitedTokenizer record);
+	}
+
+	/**
+	 * Set the size of the read and write buffers.  Both buffers are allocated once per conversion and reused, so memory use does not grow with the size of the file.
+	 * @param size the size of each buffer in bytes.
+	 */
+	public void setBufferSize(int size) {
+		if(size <= 0) {
+			throw new IllegalArgumentException("Buffer size must be positive: " + size);
+		}
+		bufferSize = size;
 	}
 
 	/**
 	 * Convert the file by replacing all occurrences of the input delimiter with the output delimiter.  Writes the contents to the file name given in the constructor.
+	 * The input is tokenized as raw UTF-8 bytes following RFC 4180, so quoted fields may contain the input delimiter, line breaks and escaped quotes.  Delimiters are matched literally (they are not regular expressions).
+	 * Fields are written unquoted unless they contain a quote, a line break or the output delimiter, and each record ends with the line separator.
+	 * Compressed input (gzip, zlib or zip) is decompressed transparently, and the output is compressed if its name ends in <code>.gz</code>, <code>.zz</code> or <code>.zip</code>.
 	 */
-	public void convert() {	
+	public void convert() {
 
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(input));
-			FileWriter writer = new FileWriter(output);
-			while(reader.ready()) {
-				String line = reader.readLine();
-				line = line.replaceAll("\"", "");
-				line = line.replaceAll(inDelimit, outDelimit);
-				/*
-				String[] fields = line.split(inDelimit);
-				for(int i = 0; i < fields.length; i++) {
-					writer.write(fields[i] + outDelimit);
+			resolveProjection();
+			boolean checkpointing = checkpointInterval > 0 && CompressedFiles.forName(output) == CompressedFiles.Format.NONE;
+			long[] resume = checkpointing ? loadCheckpoint() : null;
+			ReadableByteChannel reader = CompressedFiles.openInput(input, bufferSize);
+			WritableByteChannel writer;
+			if(resume != null) {
+				// discard whatever was written after the last checkpoint and carry on from there
+				skip(reader, resume[0]);
+				FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				channel.truncate(resume[1]);
+				channel.position(resume[1]);
+				writer = channel;
+			} else {
+				writer = CompressedFiles.openOutput(output, bufferSize, Runtime.getRuntime().availableProcessors());
+			}
+			try {
+				if(checkpointing) {
+					convert(reader, (FileChannel) writer, header && resume == null, (resume == null) ? 0 : resume[0], (resume == null) ? 0 : resume[2]);
+				} else {
+					convert(reader, writer, header);
 				}
-				*/
-				writer.write("\r\n\r\n");
+			} finally {
+				reader.close();
+				writer.close();
+			}
+			if(checkpointing) {
+				getCheckpointFile().delete();
+			}
+
+		} catch (IOException e) {
+
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Partition the output of <code>convertPartitioned()</code> by the value of the given input column.
+	 * @param column the zero-based index of the key column in the input.
+	 */
+	public void setPartitionColumn(int column) {
+		partitionColumn = column;
+		partitionName = null;
+	}
+
+	/**
+	 * Partition the output of <code>convertPartitioned()</code> by the value of the input column with the given header name.  This implies that the first record is a header.
+	 * @param name the name of the key column.
+	 */
+	public void setPartitionColumn(String name) {
+		partitionName = name;
+		header = true;
+	}
+
+	/**
+	 * Partition by a hash of the key rather than by its value, so that keys with many distinct values still produce a fixed number of files.
+	 * @param buckets the number of hash partitions, or 0 to write one partition per distinct key value.
+	 */
+	public void setPartitionBuckets(int buckets) {
+		if(buckets < 0) {
+			throw new IllegalArgumentException("Number of partitions must not be negative: " + buckets);
+		}
+		partitionBuckets = buckets;
+	}
+
+	/**
+	 * Limit how many partition files are open at once.  When a record belongs to a partition that is not open and the limit has been reached, the least recently used partition is flushed and closed; it is appended to if it is needed again.
+	 * @param max the maximum number of open partition files.
+	 */
+	public void setMaxOpenPartitions(int max) {
+		if(max < 1) {
+			throw new IllegalArgumentException("At least one partition must be open: " + max);
+		}
+		maxOpenPartitions = max;
+	}
+
+	/**
+	 * Convert the file the same way as <code>convert()</code>, but route each record to a partition file chosen by its key column, in one pass over the input.
+	 * Partition files are created beside the output and named after it with the key (or hash bucket) inserted before the extension, e.g. <code>out.tsv</code> becomes <code>out-2014-02-08.tsv</code>.  Characters in keys that are unsafe in file names are replaced by <code>_</code>.  Every partition starts with the header if there is one.
+	 * Gzip partitions that are closed and reopened gain a new gzip member, which is still one valid gzip stream; zlib and zip output cannot be partitioned.
+	 * @return the partition files written.
+	 */
+	public ArrayList<File> convertPartitioned() {
+		ArrayList<File> files = new ArrayList<File>();
+		LinkedHashMap<String, OutputStream> open = new LinkedHashMap<String, OutputStream>(16, 0.75f, true);	// access order, so the eldest entry is the least recently used
+		try {
+			resolveProjection();
+			if(partitionColumn < 0) {
+				throw new IllegalStateException("No partition column has been set");
+			}
+			CompressedFiles.Format format = CompressedFiles.forName(output);
+			String name = output.getName();
+			int dot = name.indexOf('.');
+			String prefix = (dot < 0) ? name : name.substring(0, dot);
+			String suffix = (dot < 0) ? "" : name.substring(dot);
+			File dir = output.getAbsoluteFile().getParentFile();
+			HashSet<String> created = new HashSet<String>();
+			byte[] headerRecord = null;
+
+			ReadableByteChannel reader = CompressedFiles.openInput(input, bufferSize);
+			try {
+				DelimitedTokenizer tokens = new DelimitedTokenizer(reader, inBytes, bufferSize);
+				boolean first = header;
+				while(tokens.next()) {
+					if(first) {
+						ByteArrayOutputStream h = new ByteArrayOutputStream();
+						writeRecord(h, tokens);
+						headerRecord = h.toByteArray();
+						first = false;
+						continue;
+					}
+					if(filter != null && !filter.accept(tokens)) {
+						continue;
+					}
+
+					String key = partitionKey(tokens);
+					OutputStream out = open.get(key);
+					if(out == null) {
+						if(open.size() >= maxOpenPartitions) {
+							Iterator<OutputStream> eldest = open.values().iterator();
+							eldest.next().close();
+							eldest.remove();
+						}
+						File part = new File(dir, prefix + "-" + key + suffix);
+						boolean append = !created.add(key);
+						out = new BufferedOutputStream(Channels.newOutputStream(CompressedFiles.openOutput(part, format, partitionBufferSize, 1, append)), partitionBufferSize);
+						if(!append) {
+							files.add(part);
+							if(headerRecord != null) {
+								out.write(headerRecord);
+							}
+						}
+						open.put(key, out);
+					}
+					writeRecord(out, tokens);
+				}
+			} finally {
+				reader.close();
+			}
+
+		} catch (IOException e) {
+
+			e.printStackTrace();
+		} finally {
+			for(OutputStream out : open.values()) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Get the name of the partition for the tokenizer's current record.  Hash partitions are chosen from the key's bytes without decoding it.
+	 */
+	private String partitionKey(DelimitedTokenizer tokens) {
+		if(partitionColumn >= tokens.getFieldCount()) {
+			return (partitionBuckets > 0) ? String.format("%05d", 0) : "_empty";
+		}
+		if(partitionBuckets > 0) {
+			byte[] buf = tokens.getBuffer();
+			int start = tokens.getFieldStart(partitionColumn);
+			int end = start + tokens.getFieldLength(partitionColumn);
+			int hash = 0;
+			for(int i = start; i < end; i++) {
+				hash = 31 * hash + buf[i];
+			}
+			return String.format("%05d", (hash & Integer.MAX_VALUE) % partitionBuckets);
+		}
+		String key = tokens.getString(partitionColumn);
+		if(key.isEmpty()) {
+			return "_empty";
+		}
+		StringBuilder safe = new StringBuilder(key.length());
+		for(int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			safe.append((Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.') ? c : '_');
+		}
+		return safe.toString();
+	}
+
+	/**
+	 * Make <code>convert()</code> resumable by recording a checkpoint after every given number of input bytes.  A checkpoint holds the input offset of the next record, the output offset and the number of records read.
+	 * If <code>convert()</code> finds a checkpoint left by an interrupted run over the same, unchanged input, it truncates the output to the checkpoint and continues from there.  The checkpoint is deleted once a conversion completes.
+	 * Checkpoints are not written for compressed output or by <code>convertParallel</code>.
+	 * @param bytes the number of input bytes between checkpoints, or 0 to disable checkpoints.
+	 */
+	public void setCheckpointInterval(long bytes) {
+		if(bytes < 0) {
+			throw new IllegalArgumentException("Checkpoint interval must not be negative: " + bytes);
+		}
+		checkpointInterval = bytes;
+	}
+
+	/**
+	 * Get the file holding the checkpoint of an interrupted conversion.
+	 * @return the checkpoint file beside the output.
+	 */
+	public File getCheckpointFile() {
+		return new File(output.getPath() + ".checkpoint");
+	}
+
+	/**
+	 * Convert the file the same way as <code>convert()</code> using all available processors.
+	 */
+	public void convertParallel() {
+		convertParallel(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Convert the file the same way as <code>convert()</code>, but split the memory-mapped input into chunks that are converted in parallel.
+	 * Chunks always end just after a line break (LF, CR or CRLF) that ends a record, found by following the tokenizer's quoting rules from the start of the file, so no record is split between two chunks and the output is the same as <code>convert()</code>'s.  The first chunk is written straight to the output file, each of the others to a temporary file beside it, and the temporary files are then appended in order.
+	 * Gzip output is written as one gzip member per chunk.  Compressed input and zlib or zip output cannot be split, so they are converted by <code>convert()</code> instead, as are inputs with a record too long to map as one chunk and inputs whose delimiter could overlap itself or holds a quote or line break.
+	 * @param threads the number of chunks converted at once.
+	 */
+	public void convertParallel(int threads) {
+		final CompressedFiles.Format format = CompressedFiles.forName(output);
+		try {
+			if(CompressedFiles.detect(input) != CompressedFiles.Format.NONE || (format != CompressedFiles.Format.NONE && format != CompressedFiles.Format.GZIP) || !splittable(inBytes)) {
+				// compressed input cannot be split, and only gzip members can be concatenated
+				convert();
+				return;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<File> parts = new ArrayList<File>();
+		boolean sequential = false;
+		try {
+			resolveProjection();
+			FileChannel reader = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+			try {
+				long[] bounds = chunkBounds(reader, pool);
+				for(int c = 0; c + 1 < bounds.length; c++) {
+					if(bounds[c + 1] - bounds[c] > Integer.MAX_VALUE) {
+						sequential = true;	// a record runs on too far for its chunk to be mapped
+					}
+				}
+				if(sequential) {
+					return;
+				}
+				ArrayList<Future<Long>> results = new ArrayList<Future<Long>>();
+				for(int c = 0; c + 1 < bounds.length; c++) {
+					File part = (c == 0) ? output : File.createTempFile(output.getName() + ".", ".part", output.getAbsoluteFile().getParentFile());
+					parts.add(part);
+					results.add(pool.submit(new ChunkConverter(reader, bounds[c], bounds[c + 1], part, format)));
+				}
+				for(Future<Long> f : results) {
+					f.get();
+				}
+			} finally {
+				reader.close();
+			}
+
+			FileChannel writer = FileChannel.open(output.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			try {
+				for(int c = 1; c < parts.size(); c++) {
+					FileChannel part = FileChannel.open(parts.get(c).toPath(), StandardOpenOption.READ);
+					try {
+						long pos = 0;
+						long size = part.size();
+						while(pos < size) {
+							pos += part.transferTo(pos, size - pos, writer);
+						}
+					} finally {
+						part.close();
+					}
+				}
+			} finally {
+				writer.close();
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		} finally {
+			pool.shutdownNow();
+			for(int c = 1; c < parts.size(); c++) {
+				parts.get(c).delete();
+			}
+			if(sequential) {
+				convert();
+			}
+		}
+	}
+
+	/**
+	 * Convert the file into the binary columnar format read by <code>ColumnarFile</code> instead of a delimited file.  Projection and filtering apply as for <code>convert()</code>.
+	 * The input is read twice: once to infer each column's type (long, double or dictionary-encoded string) and once to write the typed columns.  Column names come from the header if there is one.
+	 */
+	public void convertToColumnar() {
+		try {
+			resolveProjection();
+
+			// first pass: infer the type of each column
+			String[] names = null;
+			byte[] types = null;
+			ReadableByteChannel reader = CompressedFiles.openInput(input, bufferSize);
+			try {
+				DelimitedTokenizer tokens = new DelimitedTokenizer(reader, inBytes, bufferSize);
+				boolean first = header;
+				while(tokens.next()) {
+					if(first) {
+						names = projectedStrings(tokens);
+						first = false;
+						continue;
+					}
+					if(filter != null && !filter.accept(tokens)) {
+						continue;
+					}
+					if(types == null) {
+						types = new byte[(names != null) ? names.length : (projection != null) ? projection.length : tokens.getFieldCount()];
+						Arrays.fill(types, ColumnarFile.typeLong);
+					}
+					for(int k = 0; k < types.length; k++) {
+						types[k] = ColumnarWriter.widen(types[k], tokens, (projection == null) ? k : projection[k]);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			if(types == null) {
+				types = new byte[(names != null) ? names.length : 0];
+				Arrays.fill(types, ColumnarFile.typeLong);
+			}
+			if(names == null) {
+				names = new String[types.length];
+				for(int k = 0; k < names.length; k++) {
+					names[k] = "column" + k;
+				}
+			}
+
+			// second pass: write the typed columns
+			ColumnarWriter writer = new ColumnarWriter(output, names, types, bufferSize);
+			reader = CompressedFiles.openInput(input, bufferSize);
+			try {
+				DelimitedTokenizer tokens = new DelimitedTokenizer(reader, inBytes, bufferSize);
+				boolean first = header;
+				while(tokens.next()) {
+					if(first) {
+						first = false;
+						continue;
+					}
+					if(filter != null && !filter.accept(tokens)) {
+						continue;
+					}
+					writer.add(tokens, projection);
+				}
+			} finally {
+				reader.close();
+				writer.close();
 			}
-			reader.close();
-			writer.close();
 
 		} catch (IOException e) {
 
@@ -60,4 +539,430 @@ public class DelimitedFileConverter {
 		}
 	}
 
+	private String[] projectedStrings(DelimitedTokenizer tokens) {
+		int fields = (projection == null) ? tokens.getFieldCount() : projection.length;
+		String[] values = new String[fields];
+		for(int k = 0; k < fields; k++) {
+			int i = (projection == null) ? k : projection[k];
+			values[k] = (i < tokens.getFieldCount()) ? tokens.getString(i) : "";
+		}
+		return values;
+	}
+
+	/**
+	 * Set the nominal size of each chunk converted by <code>convertParallel</code>.  Actual chunks run on to the next record boundary.
+	 * @param size the chunk size in bytes.
+	 */
+	public void setChunkSize(long size) {
+		if(size <= 0 || size > maxChunkSize) {
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + maxChunkSize + ": " + size);
+		}
+		chunkSize = size;
+	}
+
+	/**
+	 * Split the input at record boundaries.  Each nominal chunk is scanned in parallel once for every state the tokenizer could be in at its start, giving the state at its end and its first record boundary for each.  The states are then chained from the start of the file, which is at the start of a field, so the true state at every nominal split point is known without a sequential pass, and each split point is moved forward to the first record boundary after it.
+	 * @return the offsets of the chunk boundaries, starting with 0 and ending with the size of the input.
+	 */
+	private long[] chunkBounds(final FileChannel reader, ExecutorService pool) throws IOException, InterruptedException, ExecutionException {
+		final long size = reader.size();
+		int nominal = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+		ArrayList<Future<long[][]>> scans = new ArrayList<Future<long[][]>>();
+		for(int c = 0; c < nominal; c++) {
+			final long from = c * chunkSize;
+			final long to = Math.min(from + chunkSize, size);
+			scans.add(pool.submit(new Callable<long[][]>() {
+				public long[][] call() throws IOException {
+					return scanChunk(reader, from, to, size);
+				}
+			}));
+		}
+
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		int state = fieldStart;
+		for(int c = 1; c < nominal; c++) {
+			state = (int) scans.get(c - 1).get()[0][state];
+			long split = scans.get(c).get()[1][state];
+			if(split > bounds.get(bounds.size() - 1) && split < size) {
+				bounds.add(split);
+			}
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Run the tokenizer's parser over part of the input from every possible starting state at once.
+	 * @return the state at the end of the part and the offset just past its first record boundary (or -1 if it has none), each indexed by the starting state.
+	 */
+	private long[][] scanChunk(FileChannel reader, long from, long to, long size) throws IOException {
+		int back = (int) Math.min(from, inBytes.length - 1);	// the end of a delimiter is matched by looking back over it
+		long start = from - back;
+		long len = Math.min(to + 1, size) - start;	// one byte more to see the LF of a CRLF
+		MappedByteBuffer map = reader.map(FileChannel.MapMode.READ_ONLY, start, len);
+		int[] current = new int[states];
+		long[][] result = new long[2][states];
+		for(int s = 0; s < states; s++) {
+			current[s] = s;
+			result[1][s] = -1;
+		}
+		int n = (int) (to - start);
+		byte last = inBytes[inBytes.length - 1];
+		for(int i = back; i < n; i++) {
+			byte b = map.get(i);
+			boolean delimiter = (b == last) && endsDelimiter(map, i);
+			for(int s = 0; s < states; s++) {
+				int next = step(current[s], b, delimiter);
+				if(next == recordEnd) {
+					next = fieldStart;
+					if(result[1][s] < 0) {
+						boolean crlf = (b == '\r' && i + 1 < len && map.get(i + 1) == '\n');
+						result[1][s] = start + i + (crlf ? 2 : 1);
+					}
+				}
+				current[s] = next;
+			}
+		}
+		for(int s = 0; s < states; s++) {
+			result[0][s] = current[s];
+		}
+		return result;
+	}
+
+	/**
+	 * Advance the tokenizer's parser by one byte, following the same rules as <code>DelimitedTokenizer.next()</code>: a quote only opens a field at its start, and anywhere else outside a quoted field it is kept as text.
+	 * @param delimiter true if the byte is the last byte of a delimiter.
+	 * @return the next state, or <code>recordEnd</code> if the byte is a line break that ends a record.
+	 */
+	private static int step(int state, byte b, boolean delimiter) {
+		switch(state) {
+		case quoted:
+			return (b == quote) ? quoteInQuoted : quoted;
+		case quoteInQuoted:
+			if(b == quote) {
+				return quoted;
+			}
+			state = afterQuoted;
+			break;
+		case fieldStart:
+			if(b == quote) {
+				return quoted;
+			}
+			state = unquoted;
+			break;
+		default:
+			break;
+		}
+		if(b == '\n' || b == '\r') {
+			return recordEnd;
+		}
+		return delimiter ? fieldStart : state;
+	}
+
+	private boolean endsDelimiter(MappedByteBuffer map, int i) {
+		if(i + 1 < inBytes.length) {
+			return false;
+		}
+		for(int j = 0; j < inBytes.length; j++) {
+			if(map.get(i - inBytes.length + 1 + j) != inBytes[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the input can be split by <code>scanChunk</code>, which matches a delimiter by its last byte.  That only agrees with the tokenizer's left-to-right matching if no two occurrences of the delimiter can overlap, and the delimiter must not hold a quote or line break.
+	 */
+	private static boolean splittable(byte[] delimiter) {
+		for(byte b : delimiter) {
+			if(b == quote || b == '\n' || b == '\r') {
+				return false;
+			}
+		}
+		for(int k = 1; k < delimiter.length; k++) {
+			boolean overlaps = true;
+			for(int j = 0; j < k && overlaps; j++) {
+				overlaps = delimiter[j] == delimiter[delimiter.length - k + j];
+			}
+			if(overlaps) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts one record-aligned chunk of the memory-mapped input into its own output file.
+	 */
+	private class ChunkConverter implements Callable<Long> {
+
+		private FileChannel reader;
+		private long from;
+		private long to;
+		private File part;
+		private CompressedFiles.Format format;
+
+		ChunkConverter(FileChannel r, long f, long t, File p, CompressedFiles.Format fmt) {
+			reader = r;
+			from = f;
+			to = t;
+			part = p;
+			format = fmt;
+		}
+
+		public Long call() throws IOException {
+			MappedByteBuffer map = reader.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+			WritableByteChannel writer = CompressedFiles.openOutput(part, format, bufferSize, 1);
+			try {
+				convert(new BufferChannel(map), writer, header && from == 0);
+			} finally {
+				writer.close();
+			}
+			return part.length();
+		}
+	}
+
+	/**
+	 * Presents a (memory-mapped) buffer as a channel so that it can be fed through the same scanner as a file.
+	 */
+	private static class BufferChannel implements ReadableByteChannel {
+
+		private ByteBuffer buf;
+
+		BufferChannel(ByteBuffer b) {
+			buf = b;
+		}
+
+		public int read(ByteBuffer dst) {
+			if(!buf.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(dst.remaining(), buf.remaining());
+			ByteBuffer slice = buf.duplicate();
+			slice.limit(slice.position() + n);
+			dst.put(slice);
+			buf.position(buf.position() + n);
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * Look up the indices of the columns named in the projection in the header of the input.
+	 */
+	private void resolveProjection() throws IOException {
+		if(projectionNames == null && partitionName == null) {
+			return;
+		}
+		ReadableByteChannel reader = CompressedFiles.openInput(input, bufferSize);
+		try {
+			DelimitedTokenizer tokens = new DelimitedTokenizer(reader, inBytes, bufferSize);
+			if(!tokens.next()) {
+				throw new IOException(input.getPath() + " has no header");
+			}
+			List<String> headers = Arrays.asList(tokens.getStrings());
+			if(projectionNames != null) {
+				projection = new int[projectionNames.length];
+				for(int i = 0; i < projectionNames.length; i++) {
+					projection[i] = headers.indexOf(projectionNames[i]);
+					if(projection[i] < 0) {
+						throw new IllegalArgumentException("No column named " + projectionNames[i] + " in " + input.getPath());
+					}
+				}
+			}
+			if(partitionName != null) {
+				partitionColumn = headers.indexOf(partitionName);
+				if(partitionColumn < 0) {
+					throw new IllegalArgumentException("No column named " + partitionName + " in " + input.getPath());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Tokenize everything readable from the given channel and write each accepted record's projected fields to the given channel with the output delimiter.
+	 */
+	private void convert(ReadableByteChannel reader, WritableByteChannel writer, boolean hasHeader) throws IOException {
+		DelimitedTokenizer tokens = new DelimitedTokenizer(reader, inBytes, bufferSize);
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(writer), bufferSize);
+		boolean first = hasHeader;
+		while(tokens.next()) {
+			if(!first && filter != null && !filter.accept(tokens)) {
+				continue;
+			}
+			first = false;
+			writeRecord(out, tokens);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Convert the same way as <code>convert(reader, writer, hasHeader)</code>, saving a checkpoint every <code>checkpointInterval</code> input bytes.
+	 * @param inputBase the offset in the input at which the reader is positioned.
+	 * @param records the number of records read before the reader's position.
+	 */
+	private void convert(ReadableByteChannel reader, FileChannel writer, boolean hasHeader, long inputBase, long records) throws IOException {
+		DelimitedTokenizer tokens = new DelimitedTokenizer(reader, inBytes, bufferSize);
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(writer), bufferSize);
+		boolean first = hasHeader;
+		long nextCheckpoint = checkpointInterval;
+		while(tokens.next()) {
+			records++;
+			if(first || filter == null || filter.accept(tokens)) {
+				first = false;
+				writeRecord(out, tokens);
+			}
+			if(tokens.getPosition() >= nextCheckpoint) {
+				// the output must be on disk before the checkpoint claims it is
+				out.flush();
+				writer.force(false);
+				saveCheckpoint(inputBase + tokens.getPosition(), writer.position(), records);
+				nextCheckpoint = tokens.getPosition() + checkpointInterval;
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write the projected fields of the tokenizer's current record followed by the line separator.
+	 */
+	private void writeRecord(OutputStream out, DelimitedTokenizer tokens) throws IOException {
+		byte[] buf = tokens.getBuffer();
+		int fields = (projection == null) ? tokens.getFieldCount() : projection.length;
+		for(int k = 0; k < fields; k++) {
+			if(k > 0) {
+				out.write(outBytes);
+			}
+			int i = (projection == null) ? k : projection[k];
+			if(i < tokens.getFieldCount()) {
+				writeField(out, buf, tokens.getFieldStart(i), tokens.getFieldLength(i));
+			}
+		}
+		out.write(lineBytes);
+	}
+
+	/**
+	 * Atomically replace the checkpoint file.  The input's size and modification time are recorded so that a checkpoint is never applied to a different input.
+	 */
+	private void saveCheckpoint(long inputOffset, long outputOffset, long records) throws IOException {
+		Properties cp = new Properties();
+		cp.setProperty("input.size", Long.toString(input.length()));
+		cp.setProperty("input.modified", Long.toString(input.lastModified()));
+		cp.setProperty("input.offset", Long.toString(inputOffset));
+		cp.setProperty("output.offset", Long.toString(outputOffset));
+		cp.setProperty("records", Long.toString(records));
+		File file = getCheckpointFile();
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tmp);
+		try {
+			cp.store(stream, "Checkpoint for converting " + input.getPath());
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the checkpoint left by an interrupted conversion.
+	 * @return the input offset, output offset and number of records, or <code>null</code> if there is no usable checkpoint.
+	 */
+	private long[] loadCheckpoint() throws IOException {
+		File file = getCheckpointFile();
+		if(!file.exists() || !output.exists()) {
+			return null;
+		}
+		Properties cp = new Properties();
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			cp.load(stream);
+		} finally {
+			stream.close();
+		}
+		try {
+			long[] resume = {Long.parseLong(cp.getProperty("input.offset")), Long.parseLong(cp.getProperty("output.offset")), Long.parseLong(cp.getProperty("records"))};
+			if(Long.parseLong(cp.getProperty("input.size")) != input.length() || Long.parseLong(cp.getProperty("input.modified")) != input.lastModified() || resume[1] > output.length()) {
+				System.out.println("Ignoring stale checkpoint " + file.getPath());
+				return null;
+			}
+			return resume;
+		} catch (NumberFormatException e) {
+			System.out.println("Ignoring corrupt checkpoint " + file.getPath());
+			return null;
+		}
+	}
+
+	private static void skip(ReadableByteChannel reader, long bytes) throws IOException {
+		if(reader instanceof FileChannel) {
+			((FileChannel) reader).position(bytes);
+			return;
+		}
+		// compressed input has to be decompressed up to the offset
+		ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+		while(bytes > 0) {
+			scratch.clear();
+			if(bytes < scratch.capacity()) {
+				scratch.limit((int) bytes);
+			}
+			int n = reader.read(scratch);
+			if(n < 0) {
+				throw new IOException("Input ended before the checkpoint");
+			}
+			bytes -= n;
+		}
+	}
+
+	/**
+	 * Write a single field, quoting it only if it contains a quote, a line break or the output delimiter.
+	 */
+	private void writeField(OutputStream out, byte[] buf, int start, int len) throws IOException {
+		int end = start + len;
+		boolean needsQuotes = false;
+		for(int i = start; i < end && !needsQuotes; i++) {
+			byte b = buf[i];
+			needsQuotes = (b == quote || b == '\r' || b == '\n' || (b == outBytes[0] && contains(buf, i, end, outBytes)));
+		}
+		if(!needsQuotes) {
+			out.write(buf, start, len);
+			return;
+		}
+		out.write(quote);
+		int from = start;
+		for(int i = start; i < end; i++) {
+			if(buf[i] == quote) {
+				out.write(buf, from, i + 1 - from);
+				from = i;	// the quote is written again, escaping it as ""
+			}
+		}
+		out.write(buf, from, end - from);
+		out.write(quote);
+	}
+
+	private static boolean contains(byte[] buf, int pos, int end, byte[] seq) {
+		if(pos + seq.length > end) {
+			return false;
+		}
+		for(int j = 1; j < seq.length; j++) {
+			if(buf[pos + j] != seq[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,397 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+public class DelimitedTokenizer {
+
+	public static final int defaultBufferSize = 1024 * 1024;	// 1 MB, grown automatically for records that do not fit
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final byte quote = '"';
+
+	// parser states
+	private static final int fieldStart = 0;
+	private static final int unquoted = 1;
+	private static final int quoted = 2;
+	private static final int quoteInQuoted = 3;	// a quote inside a quoted field: either an escaped quote or the closing quote
+	private static final int afterQuoted = 4;
+
+	private ReadableByteChannel input;
+	private byte[] delimiter;
+	private byte[] buf;
+	private int pos;
+	private int limit;
+	private long base;	// offset in the input of buf[0]
+	private boolean eof;
+
+	private int count;
+	private int[] starts;
+	private int[] ends;
+	private boolean[] wasQuoted;
+
+	/**
+	 * Default constructor to tokenize everything readable from the given channel using the default buffer size.
+	 * @param in the channel to read.
+	 * @param d the delimiter separating fields.
+	 */
+	public DelimitedTokenizer(ReadableByteChannel in, String d) {
+		this(in, d.getBytes(utf8), defaultBufferSize);
+	}
+
+	/**
+	 * Constructor to tokenize everything readable from the given channel.
+	 * @param in the channel to read.
+	 * @param d the UTF-8 bytes of the delimiter separating fields.
+	 * @param bufferSize the initial size of the read buffer in bytes.
+	 */
+	public DelimitedTokenizer(ReadableByteChannel in, byte[] d, int bufferSize) {
+		this(d);
+		input = in;
+		buf = new byte[Math.max(bufferSize, 2 * d.length)];
+	}
+
+	/**
+	 * Constructor to tokenize records already in memory.  Quoted fields are unescaped in place, so the given array is modified.
+	 * @param data the array holding the records.
+	 * @param length the number of bytes of records at the start of <code>data</code>.
+	 * @param d the delimiter separating fields.
+	 */
+	public DelimitedTokenizer(byte[] data, int length, String d) {
+		this(d.getBytes(utf8));
+		buf = data;
+		limit = length;
+		eof = true;
+	}
+
+	private DelimitedTokenizer(byte[] d) {
+		if(d.length == 0) {
+			throw new IllegalArgumentException("Delimiter must not be empty");
+		}
+		for(byte b : d) {
+			if(b == quote || b == '\r' || b == '\n') {
+				throw new IllegalArgumentException("Delimiter must not contain quotes or line breaks");
+			}
+		}
+		delimiter = d;
+		starts = new int[16];
+		ends = new int[16];
+		wasQuoted = new boolean[16];
+	}
+
+	/**
+	 * Advance to the next record.  Fields may be quoted with <code>"</code>, in which case they may contain delimiters, line breaks and quotes escaped as <code>""</code>, as described in RFC 4180.  Records end at <code>\n</code>, <code>\r\n</code> or <code>\r</code>.
+	 * The fields of the previous record are no longer valid once this is called.
+	 * @return true if a record was read; false at the end of the input.
+	 * @throws IOException if the input cannot be read.
+	 */
+	public boolean next() throws IOException {
+		count = 0;
+
+		int recordStart = pos;
+		int state = fieldStart;
+		int start = pos;
+		int w = pos;	// write position; quoted fields are unescaped in place so w never passes pos
+		boolean isQuoted = false;
+
+		while(true) {
+			if(pos >= limit) {
+				if(eof) {
+					if(state == fieldStart && count == 0 && pos == recordStart) {
+						return false;
+					}
+					endField(start, w, isQuoted);
+					return true;
+				}
+				int shift = fill(recordStart);
+				recordStart -= shift;
+				start -= shift;
+				w -= shift;
+				continue;
+			}
+
+			byte b = buf[pos];
+			switch(state) {
+			case fieldStart:
+				isQuoted = (b == quote);
+				if(isQuoted) {
+					pos++;
+					state = quoted;
+				} else {
+					state = unquoted;
+				}
+				start = pos;
+				w = pos;
+				break;
+
+			case quoted:
+				if(b == quote) {
+					state = quoteInQuoted;
+				} else {
+					buf[w++] = b;
+				}
+				pos++;
+				break;
+
+			case quoteInQuoted:
+				if(b == quote) {
+					buf[w++] = quote;
+					pos++;
+					state = quoted;
+				} else {
+					state = afterQuoted;
+				}
+				break;
+
+			default:	// unquoted or afterQuoted
+				if(b == '\n' || b == '\r') {
+					endField(start, w, isQuoted);
+					pos++;
+					if(b == '\r') {
+						if(pos >= limit && !eof) {
+							fill(recordStart);
+						}
+						if(pos < limit && buf[pos] == '\n') {
+							pos++;
+						}
+					}
+					return true;
+				}
+				if(b == delimiter[0]) {
+					if(pos + delimiter.length > limit && !eof) {
+						int shift = fill(recordStart);
+						recordStart -= shift;
+						start -= shift;
+						w -= shift;
+						continue;
+					}
+					if(pos + delimiter.length <= limit && matches(pos)) {
+						endField(start, w, isQuoted);
+						pos += delimiter.length;
+						state = fieldStart;
+						start = pos;
+						w = pos;
+						isQuoted = false;
+						break;
+					}
+				}
+				// text after a closing quote is kept rather than rejected
+				buf[w++] = b;
+				pos++;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of fields in the current record.
+	 * @return the number of fields.
+	 */
+	public int getFieldCount() {
+		return count;
+	}
+
+	/**
+	 * Get the buffer holding the current record.  Field slices refer to this buffer and are valid until the next call to <code>next()</code>.
+	 * @return the buffer.
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Get the offset in the buffer of the given field.
+	 * @param i the index of the field.
+	 * @return the offset of the field's first byte.
+	 */
+	public int getFieldStart(int i) {
+		return starts[i];
+	}
+
+	/**
+	 * Get the length in bytes of the given field after quotes have been removed and escaped quotes collapsed.
+	 * @param i the index of the field.
+	 * @return the length of the field.
+	 */
+	public int getFieldLength(int i) {
+		return ends[i] - starts[i];
+	}
+
+	/**
+	 * Check whether the given field was quoted in the input.
+	 * @param i the index of the field.
+	 * @return true if the field was quoted.
+	 */
+	public boolean isQuoted(int i) {
+		return wasQuoted[i];
+	}
+
+	/**
+	 * Decode the given field as a string.  Nothing is allocated for a field until it is decoded.
+	 * @param i the index of the field.
+	 * @return the field's value.
+	 */
+	public String getString(int i) {
+		return new String(buf, starts[i], ends[i] - starts[i], utf8);
+	}
+
+	/**
+	 * Check whether the given field is an integer that fits in a <code>long</code>, without decoding the field.
+	 * @param i the index of the field.
+	 * @return true if the field is an optionally signed run of at most 18 digits.
+	 */
+	public boolean isLong(int i) {
+		int p = starts[i];
+		int end = ends[i];
+		if(p < end && (buf[p] == '-' || buf[p] == '+')) {
+			p++;
+		}
+		if(p == end || end - p > 18) {
+			return false;
+		}
+		for(; p < end; p++) {
+			if(buf[p] < '0' || buf[p] > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the given field as an integer without decoding it as a string.  The field must satisfy <code>isLong</code>.
+	 * @param i the index of the field.
+	 * @return the field's value.
+	 */
+	public long getLong(int i) {
+		int p = starts[i];
+		int end = ends[i];
+		boolean negative = buf[p] == '-';
+		if(negative || buf[p] == '+') {
+			p++;
+		}
+		long value = 0;
+		for(; p < end; p++) {
+			value = value * 10 + (buf[p] - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse the given field as a floating point number.  Integers are parsed without decoding the field as a string.
+	 * @param i the index of the field.
+	 * @return the field's value.
+	 * @throws NumberFormatException if the field is not a number.
+	 */
+	public double getDouble(int i) {
+		if(isLong(i)) {
+			return getLong(i);
+		}
+		return Double.parseDouble(getString(i));
+	}
+
+	/**
+	 * Compare the given field with a value without decoding the field.
+	 * @param i the index of the field.
+	 * @param value the UTF-8 bytes of the value.
+	 * @return true if the field holds exactly the given value.
+	 */
+	public boolean fieldEquals(int i, byte[] value) {
+		int start = starts[i];
+		if(ends[i] - start != value.length) {
+			return false;
+		}
+		for(int j = 0; j < value.length; j++) {
+			if(buf[start + j] != value[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode every field of the current record as a string.
+	 * @return the fields.
+	 */
+	public String[] getStrings() {
+		String[] fields = new String[count];
+		for(int i = 0; i < count; i++) {
+			fields[i] = getString(i);
+		}
+		return fields;
+	}
+
+	/**
+	 * Get the offset in the input just past the current record, i.e. where the next record begins.
+	 * @return the number of bytes consumed so far.
+	 */
+	public long getPosition() {
+		return base + pos;
+	}
+
+	/**
+	 * Check whether the delimiter starts at the given offset.  The caller must ensure that the whole delimiter lies before <code>limit</code>, since bytes past it are stale or out of bounds.
+	 */
+	private boolean matches(int p) {
+		for(int j = 1; j < delimiter.length; j++) {
+			if(buf[p + j] != delimiter[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void endField(int start, int end, boolean isQuoted) {
+		if(count == starts.length) {
+			int[] s = new int[count * 2];
+			int[] e = new int[count * 2];
+			boolean[] q = new boolean[count * 2];
+			System.arraycopy(starts, 0, s, 0, count);
+			System.arraycopy(ends, 0, e, 0, count);
+			System.arraycopy(wasQuoted, 0, q, 0, count);
+			starts = s;
+			ends = e;
+			wasQuoted = q;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		wasQuoted[count] = isQuoted;
+		count++;
+	}
+
+	/**
+	 * Move the unfinished record to the front of the buffer, growing the buffer if the record already fills it, and read more input after it.
+	 * @param keepFrom the offset of the first byte that must be kept.
+	 * @return how far the kept bytes moved towards the front of the buffer.
+	 */
+	private int fill(int keepFrom) throws IOException {
+		int shift = keepFrom;
+		if(shift > 0) {
+			System.arraycopy(buf, keepFrom, buf, 0, limit - keepFrom);
+			limit -= shift;
+			pos -= shift;
+			base += shift;
+			for(int i = 0; i < count; i++) {
+				starts[i] -= shift;
+				ends[i] -= shift;
+			}
+		}
+		if(limit == buf.length) {
+			byte[] bigger = new byte[buf.length * 2];
+			System.arraycopy(buf, 0, bigger, 0, limit);
+			buf = bigger;
+		}
+		int n = input.read(ByteBuffer.wrap(buf, limit, buf.length - limit));
+		if(n < 0) {
+			eof = true;
+		} else {
+			limit += n;
+		}
+		return shift;
+	}
+
+}
@@ -0,0 +1,65 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.File;
+
+public class DirectoryChange {
+
+	public enum Type { ADDED, MODIFIED, DELETED }
+
+	private Type type;
+	private File file;
+	private long size;
+	private long lastModified;
+
+	/**
+	 * Default constructor to record a single change to a file beneath a walked directory.
+	 * @param t the kind of change.
+	 * @param f the file that changed.
+	 * @param s the size of the file in bytes after the change, or before it for deletions.
+	 * @param m the modification time in ms since the epoch after the change, or before it for deletions.
+	 */
+	public DirectoryChange(Type t, File f, long s, long m) {
+		type = t;
+		file = f;
+		size = s;
+		lastModified = m;
+	}
+
+	/**
+	 * @return the kind of change
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the file that changed
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modification time in ms since the epoch
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String toString() {
+		return type + "\t" + file.getPath();
+	}
+
+}
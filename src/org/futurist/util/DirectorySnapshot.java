@@ -0,0 +1,169 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class DirectorySnapshot {
+
+	private static final int magic = 0x44534e31;	// "DSN1", identifies a persisted snapshot
+	private static final int bufferSize = 1 << 16;
+
+	// path -> {size, last modified}, sorted so that snapshots can be diffed with a single merge pass
+	private TreeMap<String, long[]> entries;
+
+	/**
+	 * Default constructor to create an empty snapshot.
+	 */
+	public DirectorySnapshot() {
+		entries = new TreeMap<String, long[]>();
+	}
+
+	/**
+	 * Read a snapshot previously written by <code>save</code>.
+	 * @param in the snapshot file.
+	 * @return the snapshot.
+	 * @throws IOException if the file cannot be read or is not a snapshot.
+	 */
+	public static DirectorySnapshot load(File in) throws IOException {
+		DirectorySnapshot snap = new DirectorySnapshot();
+		DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(in), bufferSize));
+		try {
+			if(reader.readInt() != magic) {
+				throw new IOException(in.getPath() + " is not a directory snapshot");
+			}
+			int count = reader.readInt();
+			for(int i = 0; i < count; i++) {
+				String path = reader.readUTF();
+				snap.put(path, reader.readLong(), reader.readLong());
+			}
+		} finally {
+			reader.close();
+		}
+		return snap;
+	}
+
+	/**
+	 * Write this snapshot to the given file.  The snapshot is written to a temporary file first and then moved into place so that a crash never leaves a truncated snapshot behind.
+	 * @param out the snapshot file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void save(File out) throws IOException {
+		File tmp = new File(out.getPath() + ".tmp");
+		DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), bufferSize));
+		try {
+			writer.writeInt(magic);
+			writer.writeInt(entries.size());
+			for(Map.Entry<String, long[]> e : entries.entrySet()) {
+				writer.writeUTF(e.getKey());
+				writer.writeLong(e.getValue()[0]);
+				writer.writeLong(e.getValue()[1]);
+			}
+		} finally {
+			writer.close();
+		}
+		Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Record the state of a file.
+	 * @param path the path of the file.
+	 * @param size the size of the file in bytes.
+	 * @param lastModified the modification time in ms since the epoch.
+	 */
+	public void put(String path, long size, long lastModified) {
+		entries.put(path, new long[]{size, lastModified});
+	}
+
+	/**
+	 * Get the recorded state of a file.
+	 * @param path the path of the file.
+	 * @return the size and modification time of the file, or <code>null</code> if the file is not in this snapshot.
+	 */
+	public long[] get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Forget a file.
+	 * @param path the path of the file.
+	 * @return the size and modification time the file had, or <code>null</code> if the file was not in this snapshot.
+	 */
+	public long[] remove(String path) {
+		return entries.remove(path);
+	}
+
+	/**
+	 * Forget every file beneath the given directory, reporting each one as deleted.
+	 * @param dir the path of the directory.
+	 * @return the deletions.
+	 */
+	public ArrayList<DirectoryChange> removeTree(String dir) {
+		ArrayList<DirectoryChange> changes = new ArrayList<DirectoryChange>();
+		String prefix = dir + File.separator;
+		SortedMap<String, long[]> tree = entries.subMap(prefix, prefix + Character.MAX_VALUE);
+		Iterator<Map.Entry<String, long[]>> iter = tree.entrySet().iterator();
+		while(iter.hasNext()) {
+			Map.Entry<String, long[]> e = iter.next();
+			changes.add(new DirectoryChange(DirectoryChange.Type.DELETED, new File(e.getKey()), e.getValue()[0], e.getValue()[1]));
+			iter.remove();
+		}
+		return changes;
+	}
+
+	/**
+	 * Get the number of files in this snapshot.
+	 * @return the number of files.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Compare this snapshot with a newer one of the same tree.
+	 * @param newer the newer snapshot.
+	 * @return every file added, modified or deleted between the two snapshots, in path order.
+	 */
+	public ArrayList<DirectoryChange> diff(DirectorySnapshot newer) {
+		ArrayList<DirectoryChange> changes = new ArrayList<DirectoryChange>();
+		Iterator<Map.Entry<String, long[]>> oldIter = entries.entrySet().iterator();
+		Iterator<Map.Entry<String, long[]>> newIter = newer.entries.entrySet().iterator();
+		Map.Entry<String, long[]> o = oldIter.hasNext() ? oldIter.next() : null;
+		Map.Entry<String, long[]> n = newIter.hasNext() ? newIter.next() : null;
+
+		while(o != null || n != null) {
+			int cmp = (o == null) ? 1 : (n == null) ? -1 : o.getKey().compareTo(n.getKey());
+			if(cmp < 0) {
+				changes.add(new DirectoryChange(DirectoryChange.Type.DELETED, new File(o.getKey()), o.getValue()[0], o.getValue()[1]));
+				o = oldIter.hasNext() ? oldIter.next() : null;
+			} else if(cmp > 0) {
+				changes.add(new DirectoryChange(DirectoryChange.Type.ADDED, new File(n.getKey()), n.getValue()[0], n.getValue()[1]));
+				n = newIter.hasNext() ? newIter.next() : null;
+			} else {
+				if(o.getValue()[0] != n.getValue()[0] || o.getValue()[1] != n.getValue()[1]) {
+					changes.add(new DirectoryChange(DirectoryChange.Type.MODIFIED, new File(n.getKey()), n.getValue()[0], n.getValue()[1]));
+				}
+				o = oldIter.hasNext() ? oldIter.next() : null;
+				n = newIter.hasNext() ? newIter.next() : null;
+			}
+		}
+		return changes;
+	}
+
+}
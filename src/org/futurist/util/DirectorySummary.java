@@ -0,0 +1,159 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class DirectorySummary {
+
+	private File directory;
+	private long[] ageLimits;
+	private long bytes;
+	private long files;
+	private long directories;
+	private long oldest;
+	private long newest;
+	private long[] ageCounts;
+	private ArrayList<DirectorySummary> children;
+
+	/**
+	 * Default constructor to create an empty summary of the given directory.
+	 * @param dir the directory summarized.
+	 * @param limits the ascending upper bounds in ms of each age bucket; files older than the last bound fall into one extra bucket.
+	 */
+	public DirectorySummary(File dir, long[] limits) {
+		directory = dir;
+		ageLimits = limits;
+		oldest = Long.MAX_VALUE;
+		newest = Long.MIN_VALUE;
+		ageCounts = new long[limits.length + 1];
+		children = new ArrayList<DirectorySummary>();
+	}
+
+	/**
+	 * Count a file directly inside this directory.
+	 * @param size the size of the file in bytes.
+	 * @param lastModified the modification time in ms since the epoch.
+	 * @param now the time in ms since the epoch against which ages are measured.
+	 */
+	void addFile(long size, long lastModified, long now) {
+		bytes += size;
+		files++;
+		oldest = Math.min(oldest, lastModified);
+		newest = Math.max(newest, lastModified);
+		long age = now - lastModified;
+		int bucket = 0;
+		while(bucket < ageLimits.length && age >= ageLimits[bucket]) {
+			bucket++;
+		}
+		ageCounts[bucket]++;
+	}
+
+	/**
+	 * Attach the summary of a sub-directory and roll its totals up into this one.
+	 * @param child the summary of the sub-directory.
+	 */
+	void addChild(DirectorySummary child) {
+		children.add(child);
+		bytes += child.bytes;
+		files += child.files;
+		directories += child.directories + 1;
+		oldest = Math.min(oldest, child.oldest);
+		newest = Math.max(newest, child.newest);
+		for(int i = 0; i < ageCounts.length; i++) {
+			ageCounts[i] += child.ageCounts[i];
+		}
+	}
+
+	/**
+	 * @return the directory summarized
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the total size in bytes of all files in this sub-tree
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of files in this sub-tree
+	 */
+	public long getFileCount() {
+		return files;
+	}
+
+	/**
+	 * @return the number of directories beneath this one
+	 */
+	public long getDirectoryCount() {
+		return directories;
+	}
+
+	/**
+	 * @return the oldest modification time in this sub-tree, or <code>Long.MAX_VALUE</code> if it holds no files
+	 */
+	public long getOldest() {
+		return oldest;
+	}
+
+	/**
+	 * @return the newest modification time in this sub-tree, or <code>Long.MIN_VALUE</code> if it holds no files
+	 */
+	public long getNewest() {
+		return newest;
+	}
+
+	/**
+	 * @return the upper bounds in ms of each age bucket
+	 */
+	public long[] getAgeLimits() {
+		return ageLimits;
+	}
+
+	/**
+	 * @return the number of files in each age bucket, with one more entry than there are age limits
+	 */
+	public long[] getAgeCounts() {
+		return ageCounts;
+	}
+
+	/**
+	 * @return the summaries of the immediate sub-directories
+	 */
+	public ArrayList<DirectorySummary> getChildren() {
+		return children;
+	}
+
+	/**
+	 * Returns a <code>du</code>-like report of this sub-tree down to the given depth.
+	 * @param depth how many levels of sub-directories to include.
+	 * @return the report with one tab-delimited line of bytes, file count and path per directory.
+	 */
+	public String report(int depth) {
+		StringBuilder sb = new StringBuilder();
+		report(sb, depth);
+		return sb.toString();
+	}
+
+	private void report(StringBuilder sb, int depth) {
+		if(depth > 0) {
+			for(DirectorySummary c : children) {
+				c.report(sb, depth - 1);
+			}
+		}
+		sb.append(bytes).append('\t').append(files).append('\t').append(directory.getPath()).append('\n');
+	}
+
+	@Override
+	public String toString() {
+		return bytes + "\t" + files + "\t" + directory.getPath();
+	}
+
+}
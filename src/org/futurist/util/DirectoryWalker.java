@@ -1,17 +1,50 @@
 /**
  * @author Steven L. Moxley
- * @version 1.0
+ * @version 1.1
  */
 package org.futurist.util;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class DirectoryWalker {
 
+	public static final int unlimitedDepth = Integer.MAX_VALUE;
+	public static final long[] defaultAgeLimits = {24L*60*60*1000, 7L*24*60*60*1000, 30L*24*60*60*1000, 365L*24*60*60*1000};	// 1 day, 1 week, 30 days, 1 year
+
 	private ArrayList<File> files;
 	private File rootFile;
 
+	// filters checked while walking so that rejected sub-trees are never listed
+	private PathMatcher globMatcher;
+	private PathMatcher regexMatcher;
+	private PathMatcher pruneMatcher;
+	private FileFilter fileFilter;
+	private FileFilter dirFilter;
+	private int maxDepth;
+	private long minSize;
+	private long maxSize;
+	private long modifiedAfter;
+	private long modifiedBefore;
+	private boolean followLinks;
+
 	/**
 	 * Default constructor that takes the directory to be recursively traversed.
 	 * @param f the directory to traverse.
@@ -19,26 +52,364 @@ public class DirectoryWalker {
 	public DirectoryWalker(File f) {
 		files = new ArrayList<File>();
 		rootFile = f;
+		maxDepth = unlimitedDepth;
+		minSize = 0;
+		maxSize = Long.MAX_VALUE;
+		modifiedAfter = Long.MIN_VALUE;
+		modifiedBefore = Long.MAX_VALUE;
+		followLinks = true;
+	}
+
+	/**
+	 * Get the root of the traversal.
+	 * @return the directory given in the constructor.
+	 */
+	public File getRoot() {
+		return rootFile;
+	}
+
+	/**
+	 * Only return files whose name matches the given glob, e.g. <code>*.csv</code> or <code>*.{csv,tsv}</code>.  If a regular expression is also set, a file must match both.
+	 * @param glob the glob pattern applied to the file name (not the full path), or <code>null</code> to match every file.
+	 */
+	public void setFileGlob(String glob) {
+		globMatcher = (glob == null) ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+	}
+
+	/**
+	 * Only return files whose name matches the given regular expression.  If a glob is also set, a file must match both.
+	 * @param regex the regular expression applied to the file name (not the full path), or <code>null</code> to match every file.
+	 */
+	public void setFileRegex(String regex) {
+		regexMatcher = (regex == null) ? null : FileSystems.getDefault().getPathMatcher("regex:" + regex);
+	}
+
+	/**
+	 * Skip every sub-directory whose name matches the given glob, e.g. <code>.git</code> or <code>{tmp,archive*}</code>.  Pruned directories are never listed.
+	 * @param glob the glob pattern applied to the directory name, or <code>null</code> to prune nothing.
+	 */
+	public void setPruneGlob(String glob) {
+		pruneMatcher = (glob == null) ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+	}
+
+	/**
+	 * Only return files accepted by the given filter.  The filter is applied after the name, size and modification time checks.
+	 * @param filter the file filter, or <code>null</code> to accept every file.
+	 */
+	public void setFileFilter(FileFilter filter) {
+		fileFilter = filter;
 	}
 
 	/**
-	 * Returns the list of all files contained within all sub-directories of the root given in the constructor.
+	 * Only descend into sub-directories accepted by the given filter.  Rejected directories are never listed.
+	 * @param filter the directory filter, or <code>null</code> to descend into every directory.
+	 */
+	public void setDirectoryFilter(FileFilter filter) {
+		dirFilter = filter;
+	}
+
+	/**
+	 * Limit how deep the traversal goes.  Files directly inside the root are at depth 1.
+	 * @param depth the maximum depth, or <code>unlimitedDepth</code>.
+	 */
+	public void setMaxDepth(int depth) {
+		if(depth < 0) {
+			throw new IllegalArgumentException("Maximum depth must be non-negative: " + depth);
+		}
+		maxDepth = depth;
+	}
+
+	/**
+	 * Only return files whose size in bytes lies within the given inclusive range.
+	 * @param min the minimum size in bytes.
+	 * @param max the maximum size in bytes.
+	 */
+	public void setSizeRange(long min, long max) {
+		if(min > max) {
+			throw new IllegalArgumentException("Minimum size " + min + " exceeds maximum size " + max);
+		}
+		minSize = min;
+		maxSize = max;
+	}
+
+	/**
+	 * Only return files last modified within the given inclusive range.
+	 * @param after the earliest modification time in ms since the epoch.
+	 * @param before the latest modification time in ms since the epoch.
+	 */
+	public void setModifiedRange(long after, long before) {
+		if(after > before) {
+			throw new IllegalArgumentException("Start of range " + after + " is after end of range " + before);
+		}
+		modifiedAfter = after;
+		modifiedBefore = before;
+	}
+
+	/**
+	 * Only return files modified within the given amount of time before now.
+	 * @param age the maximum age in ms.
+	 */
+	public void setMaxAge(long age) {
+		setModifiedRange(System.currentTimeMillis() - age, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Follow symbolic links during the traversal.  Links that would lead back into a directory already being visited are skipped rather than looping.
+	 * @param follow true to follow symbolic links; false to list links as files without following them.
+	 */
+	public void setFollowLinks(boolean follow) {
+		followLinks = follow;
+	}
+
+	/**
+	 * Returns the list of all files contained within all sub-directories of the root given in the constructor that pass the configured filters.
 	 * @return The list of all files found in the traversal.
 	 */
 	public ArrayList<File> traverse() {
-		return recursiveTraversal(rootFile);
+		files = new ArrayList<File>();
+		walk(new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(accept(file, attrs)) {
+					files.add(file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
 	}
 
-	private ArrayList<File> recursiveTraversal(File currentFile) {
-		if (currentFile.isDirectory()) {
-			File allFiles[] = currentFile.listFiles();
-			for (File aFile : allFiles) {
-				recursiveTraversal(aFile);
+	/**
+	 * Take a snapshot of the path, size and modification time of every file that passes the configured filters.
+	 * @return the snapshot.
+	 */
+	public DirectorySnapshot snapshot() {
+		final DirectorySnapshot snap = new DirectorySnapshot();
+		walk(new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(accept(file, attrs)) {
+					snap.put(file.toString(), attrs.size(), attrs.lastModifiedTime().toMillis());
+				}
+				return FileVisitResult.CONTINUE;
 			}
-		} else if (currentFile.isFile()) {
-			files.add(currentFile);
+		});
+		return snap;
+	}
+
+	/**
+	 * Returns only the files that were added, modified or deleted since the snapshot persisted in the given file, then replaces that snapshot with the current state of the tree.  The first run reports every file as added.
+	 * @param snapshotFile the file holding the snapshot from the previous run.
+	 * @return the changes since the previous run.
+	 * @throws IOException if the snapshot cannot be read or written.
+	 */
+	public ArrayList<DirectoryChange> changesSince(File snapshotFile) throws IOException {
+		DirectorySnapshot previous = snapshotFile.exists() ? DirectorySnapshot.load(snapshotFile) : new DirectorySnapshot();
+		DirectorySnapshot current = snapshot();
+		ArrayList<DirectoryChange> changes = previous.diff(current);
+		current.save(snapshotFile);
+		return changes;
+	}
+
+	/**
+	 * Compute <code>du</code>-like rollups of bytes, file counts and file ages for every directory beneath the root in one parallel pass, using the default age buckets and all available processors.
+	 * @return the summary of the root, whose children summarize each sub-directory.
+	 */
+	public DirectorySummary summarize() {
+		return summarize(defaultAgeLimits, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Compute <code>du</code>-like rollups of bytes, file counts and file ages for every directory beneath the root in one parallel pass.  Each directory is listed by its own fork/join task and merged into its parent's summary as the tasks complete.  Only files that pass the configured filters are counted.
+	 * @param ageLimits the ascending upper bounds in ms of each age bucket.
+	 * @param parallelism the number of threads listing directories.
+	 * @return the summary of the root, whose children summarize each sub-directory.
+	 */
+	public DirectorySummary summarize(long[] ageLimits, int parallelism) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.invoke(new SummaryTask(rootFile.toPath(), 0, ageLimits, System.currentTimeMillis(), new ArrayList<Object>()));
+		} finally {
+			pool.shutdown();
 		}
-		return files;
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * Summarizes one directory, forking a task for each of its sub-directories.
+	 */
+	private class SummaryTask extends RecursiveTask<DirectorySummary> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Path dir;
+		private int depth;
+		private long[] ageLimits;
+		private long now;
+		private ArrayList<Object> ancestors;	// file keys of every directory above this one, used to detect symbolic link loops
+
+		SummaryTask(Path d, int dp, long[] limits, long n, ArrayList<Object> a) {
+			dir = d;
+			depth = dp;
+			ageLimits = limits;
+			now = n;
+			ancestors = a;
+		}
+
+		@Override
+		protected DirectorySummary compute() {
+			DirectorySummary summary = new DirectorySummary(dir.toFile(), ageLimits);
+			if(depth >= maxDepth) {
+				return summary;
+			}
+			ArrayList<SummaryTask> subTasks = new ArrayList<SummaryTask>();
+			ArrayList<Object> path = new ArrayList<Object>(ancestors);
+			try {
+				path.add(key(dir, readAttributes(dir)));
+				DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+				try {
+					for(Path child : stream) {
+						BasicFileAttributes attrs;
+						try {
+							attrs = readAttributes(child);
+						} catch (IOException e) {
+							continue;
+						}
+						if(attrs.isDirectory()) {
+							if(depth + 1 < maxDepth && !prune(child) && !path.contains(key(child, attrs))) {
+								SummaryTask t = new SummaryTask(child, depth + 1, ageLimits, now, path);
+								t.fork();
+								subTasks.add(t);
+							}
+						} else if(accept(child, attrs)) {
+							summary.addFile(attrs.size(), attrs.lastModifiedTime().toMillis(), now);
+						}
+					}
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+				System.out.println("Skipping " + dir + ": " + e.getMessage());
+			}
+			for(SummaryTask t : subTasks) {
+				summary.addChild(t.join());
+			}
+			return summary;
+		}
+
+		private Object key(Path p, BasicFileAttributes attrs) throws IOException {
+			Object key = attrs.fileKey();
+			return (key != null) ? key : p.toRealPath().toString();
+		}
+	}
+
+	/**
+	 * Get the maximum depth of the traversal.
+	 * @return the maximum depth.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Walk the tree rooted at the directory given in the constructor, applying the depth, link and prune settings.  Files handed to the visitor have not yet been checked against the file filters.
+	 * @param visitor the visitor to receive directories and files.
+	 */
+	void walk(SimpleFileVisitor<Path> visitor) {
+		walk(rootFile.toPath(), maxDepth, visitor);
+	}
+
+	/**
+	 * Walk the sub-tree rooted at the given directory, applying the link and prune settings.  The start directory itself is never pruned.
+	 * @param start the directory at which to start.
+	 * @param depth the maximum depth below the start directory.
+	 * @param visitor the visitor to receive directories and files.
+	 */
+	void walk(final Path start, int depth, final SimpleFileVisitor<Path> visitor) {
+		Set<FileVisitOption> options = followLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+		try {
+			Files.walkFileTree(start, options, depth, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if(!dir.equals(start) && prune(dir)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return visitor.preVisitDirectory(dir, attrs);
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					// directories cut off by the maximum depth are reported as files
+					if(attrs.isDirectory()) {
+						return FileVisitResult.CONTINUE;
+					}
+					return visitor.visitFile(file, attrs);
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					if(!(e instanceof FileSystemLoopException)) {
+						System.out.println("Skipping " + file + ": " + e.getMessage());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					return visitor.postVisitDirectory(dir, e);
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read the attributes of the given path, following symbolic links only if the walk would.
+	 * @param path the path.
+	 * @return the attributes.
+	 * @throws IOException if the path no longer exists or cannot be read.
+	 */
+	BasicFileAttributes readAttributes(Path path) throws IOException {
+		if(followLinks) {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		}
+		return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	/**
+	 * Check whether the given directory should be skipped along with everything beneath it.
+	 * @param dir the directory.
+	 * @return true if the directory is pruned.
+	 */
+	boolean prune(Path dir) {
+		if(pruneMatcher != null && dir.getFileName() != null && pruneMatcher.matches(dir.getFileName())) {
+			return true;
+		}
+		return dirFilter != null && !dirFilter.accept(dir.toFile());
+	}
+
+	/**
+	 * Check whether the given file passes the name, size, modification time and custom filters.
+	 * @param file the file.
+	 * @param attrs the file's attributes as read during the walk.
+	 * @return true if the file should be returned.
+	 */
+	boolean accept(Path file, BasicFileAttributes attrs) {
+		if(globMatcher != null && (file.getFileName() == null || !globMatcher.matches(file.getFileName()))) {
+			return false;
+		}
+		if(regexMatcher != null && (file.getFileName() == null || !regexMatcher.matches(file.getFileName()))) {
+			return false;
+		}
+		long size = attrs.size();
+		if(size < minSize || size > maxSize) {
+			return false;
+		}
+		long modified = attrs.lastModifiedTime().toMillis();
+		if(modified < modifiedAfter || modified > modifiedBefore) {
+			return false;
+		}
+		return fileFilter == null || fileFilter.accept(file.toFile());
+	}
+
+}
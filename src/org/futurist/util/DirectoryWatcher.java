@@ -0,0 +1,202 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+public class DirectoryWatcher {
+
+	private DirectoryWalker walker;
+	private Path root;
+	private WatchService watcher;
+	private HashMap<WatchKey, Path> keys;
+	private DirectorySnapshot current;
+
+	/**
+	 * Default constructor that registers every directory the given walker would visit and records the files it would return.  Changes are reported relative to that initial state.
+	 * @param w the walker whose root, filters, depth and link settings determine what is watched.
+	 * @throws IOException if the watch service cannot be created.
+	 */
+	public DirectoryWatcher(DirectoryWalker w) throws IOException {
+		walker = w;
+		root = walker.getRoot().toPath();
+		watcher = FileSystems.getDefault().newWatchService();
+		keys = new HashMap<WatchKey, Path>();
+		current = new DirectorySnapshot();
+		scan(root, new ArrayList<DirectoryChange>());
+	}
+
+	/**
+	 * Get the current state of the watched tree as tracked from change events.
+	 * @return the snapshot.
+	 */
+	public DirectorySnapshot getSnapshot() {
+		return current;
+	}
+
+	/**
+	 * Wait up to the given time for changes and return every change that is pending once the first one arrives.
+	 * @param timeout how long to wait.
+	 * @param unit the unit of <code>timeout</code>.
+	 * @return the changes, which is empty if none arrived in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public ArrayList<DirectoryChange> poll(long timeout, TimeUnit unit) throws InterruptedException {
+		ArrayList<DirectoryChange> changes = new ArrayList<DirectoryChange>();
+		WatchKey key = watcher.poll(timeout, unit);
+		while(key != null) {
+			process(key, changes);
+			key = watcher.poll();
+		}
+		return changes;
+	}
+
+	/**
+	 * Wait for changes and return every change that is pending once the first one arrives.
+	 * @return the changes.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public ArrayList<DirectoryChange> take() throws InterruptedException {
+		ArrayList<DirectoryChange> changes = new ArrayList<DirectoryChange>();
+		while(changes.isEmpty()) {
+			WatchKey key = watcher.take();
+			while(key != null) {
+				process(key, changes);
+				key = watcher.poll();
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Stop watching the tree.
+	 * @throws IOException if the watch service cannot be closed.
+	 */
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+	private void process(WatchKey key, ArrayList<DirectoryChange> changes) {
+		Path dir = keys.get(key);
+		if(dir != null) {
+			for(WatchEvent<?> event : key.pollEvents()) {
+				if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// events were lost, so fall back to a full rescan
+					rescan(changes);
+					break;
+				}
+				Path child = dir.resolve((Path) event.context());
+				if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					deleted(child, changes);
+				} else {
+					updated(child, changes);
+				}
+			}
+		}
+		if(!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	private void deleted(Path child, ArrayList<DirectoryChange> changes) {
+		long[] state = current.remove(child.toString());
+		if(state != null) {
+			changes.add(new DirectoryChange(DirectoryChange.Type.DELETED, child.toFile(), state[0], state[1]));
+		} else {
+			changes.addAll(current.removeTree(child.toString()));
+		}
+	}
+
+	private void updated(Path child, ArrayList<DirectoryChange> changes) {
+		int depth = root.relativize(child).getNameCount();
+		if(depth > walker.getMaxDepth()) {
+			return;
+		}
+		BasicFileAttributes attrs;
+		try {
+			attrs = walker.readAttributes(child);
+		} catch (IOException e) {
+			// already gone again; its deletion event follows
+			return;
+		}
+		if(attrs.isDirectory()) {
+			if(depth < walker.getMaxDepth() && !walker.prune(child)) {
+				scan(child, changes);
+			}
+			return;
+		}
+		long[] state = current.get(child.toString());
+		if(walker.accept(child, attrs)) {
+			long size = attrs.size();
+			long modified = attrs.lastModifiedTime().toMillis();
+			if(state == null) {
+				changes.add(new DirectoryChange(DirectoryChange.Type.ADDED, child.toFile(), size, modified));
+			} else if(state[0] != size || state[1] != modified) {
+				changes.add(new DirectoryChange(DirectoryChange.Type.MODIFIED, child.toFile(), size, modified));
+			} else {
+				return;
+			}
+			current.put(child.toString(), size, modified);
+		} else if(state != null) {
+			// the file no longer passes the filters, e.g. it grew past the maximum size
+			current.remove(child.toString());
+			changes.add(new DirectoryChange(DirectoryChange.Type.DELETED, child.toFile(), state[0], state[1]));
+		}
+	}
+
+	private void rescan(ArrayList<DirectoryChange> changes) {
+		for(WatchKey k : keys.keySet()) {
+			k.cancel();
+		}
+		keys.clear();
+		DirectorySnapshot previous = current;
+		current = new DirectorySnapshot();
+		scan(root, new ArrayList<DirectoryChange>());
+		changes.addAll(previous.diff(current));
+	}
+
+	/**
+	 * Register every directory beneath the given one and record every file that passes the walker's filters, reporting files not seen before as added.
+	 */
+	private void scan(Path start, final ArrayList<DirectoryChange> changes) {
+		int depth = walker.getMaxDepth() - root.relativize(start).getNameCount();
+		walker.walk(start, depth, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				try {
+					keys.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+				} catch (IOException e) {
+					System.out.println("Unable to watch " + dir + ": " + e.getMessage());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(walker.accept(file, attrs) && current.get(file.toString()) == null) {
+					long size = attrs.size();
+					long modified = attrs.lastModifiedTime().toMillis();
+					current.put(file.toString(), size, modified);
+					changes.add(new DirectoryChange(DirectoryChange.Type.ADDED, new File(file.toString()), size, modified));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
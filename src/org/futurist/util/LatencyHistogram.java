@@ -0,0 +1,119 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+	private static final int linear = 16;	// values below this get a bucket each
+	private static final int subBits = 3;	// 8 buckets per power of two above that, so each bucket is within 12.5% of its values
+	private static final int buckets = linear + (63 - 4) * (1 << subBits);
+
+	private AtomicLongArray counts;
+	private AtomicLong total;
+	private AtomicLong sum;
+	private AtomicLong max;
+
+	/**
+	 * Default constructor to create an empty histogram.  Recording is lock-free and takes a few atomic increments, so one histogram can be shared by many threads on a hot path.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(buckets);
+		total = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Record one value.
+	 * @param value the value, e.g. a latency in microseconds; negative values count as 0.
+	 */
+	public void record(long value) {
+		long v = Math.max(0, value);
+		counts.incrementAndGet(bucket(v));
+		total.incrementAndGet();
+		sum.addAndGet(v);
+		long m;
+		while(v > (m = max.get()) && !max.compareAndSet(m, v)) {
+			// another thread raised the maximum; try again against the new one
+		}
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = total.get();
+		return (n == 0) ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @return the largest value recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimate a percentile of the values recorded.
+	 * @param p the percentile, from 0 to 100.
+	 * @return the upper bound of the bucket holding the percentile, which is within 12.5% of the true value, or 0 if nothing was recorded.
+	 */
+	public long getPercentile(double p) {
+		long n = total.get();
+		if(n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * p / 100.0));
+		long seen = 0;
+		for(int b = 0; b < buckets; b++) {
+			seen += counts.get(b);
+			if(seen >= rank) {
+				return Math.min(upperBound(b), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forget every value recorded.  Values recorded while resetting may or may not be kept.
+	 */
+	public void reset() {
+		for(int b = 0; b < buckets; b++) {
+			counts.set(b, 0);
+		}
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int bucket(long v) {
+		if(v < linear) {
+			return (int) v;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exponent - subBits)) & ((1 << subBits) - 1);
+		return linear + ((exponent - 4) << subBits) + sub;
+	}
+
+	private static long upperBound(int b) {
+		if(b < linear) {
+			return b;
+		}
+		int exponent = ((b - linear) >> subBits) + 4;
+		int sub = (b - linear) & ((1 << subBits) - 1);
+		return ((long) ((1 << subBits) + sub + 1) << (exponent - subBits)) - 1;
+	}
+
+}
@@ -0,0 +1,205 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.util.Arrays;
+
+public class NumericColumn {
+
+	public static final int defaultCapacity = 1024;
+
+	private String name;
+	private boolean integral;
+	private long[] longs;
+	private double[] doubles;
+	private long[] nulls;	// bit i is set if value i is null
+	private int size;
+	private int nullCount;
+
+	/**
+	 * Default constructor to create an empty column of primitive values.  Integral columns hold <code>long</code> values and the rest hold <code>double</code> values; either grows by doubling as values are added, and nulls are kept in a bitmap rather than as boxed objects.
+	 * @param n the name of the column.
+	 * @param isIntegral true to hold <code>long</code> values; false to hold <code>double</code> values.
+	 * @param capacity the number of values to allocate room for.
+	 */
+	public NumericColumn(String n, boolean isIntegral, int capacity) {
+		name = n;
+		integral = isIntegral;
+		int c = Math.max(1, capacity);
+		if(integral) {
+			longs = new long[c];
+		} else {
+			doubles = new double[c];
+		}
+		nulls = new long[(c + 63) >>> 6];
+	}
+
+	/**
+	 * @return the name of the column
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true if the column holds <code>long</code> values; false if it holds <code>double</code> values
+	 */
+	public boolean isIntegral() {
+		return integral;
+	}
+
+	/**
+	 * @return the number of values, including nulls
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of null values
+	 */
+	public int getNullCount() {
+		return nullCount;
+	}
+
+	/**
+	 * Append a value.  Values added to a column of <code>double</code> values are widened.
+	 * @param v the value.
+	 */
+	public void addLong(long v) {
+		grow();
+		if(integral) {
+			longs[size++] = v;
+		} else {
+			doubles[size++] = v;
+		}
+	}
+
+	/**
+	 * Append a value.  Values added to a column of <code>long</code> values are truncated.
+	 * @param v the value.
+	 */
+	public void addDouble(double v) {
+		grow();
+		if(integral) {
+			longs[size++] = (long) v;
+		} else {
+			doubles[size++] = v;
+		}
+	}
+
+	/**
+	 * Append a null, which reads as 0 from a column of <code>long</code> values and <code>NaN</code> from a column of <code>double</code> values.
+	 */
+	public void addNull() {
+		grow();
+		nulls[size >>> 6] |= 1L << size;
+		if(!integral) {
+			doubles[size] = Double.NaN;
+		}
+		size++;
+		nullCount++;
+	}
+
+	/**
+	 * @param i the index of the value.
+	 * @return true if the value is null
+	 */
+	public boolean isNull(int i) {
+		check(i);
+		return (nulls[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * @param i the index of the value.
+	 * @return the value as a <code>long</code>
+	 */
+	public long getLong(int i) {
+		check(i);
+		return integral ? longs[i] : (long) doubles[i];
+	}
+
+	/**
+	 * @param i the index of the value.
+	 * @return the value as a <code>double</code>, or <code>NaN</code> if it is null
+	 */
+	public double getDouble(int i) {
+		check(i);
+		if(integral) {
+			return ((nulls[i >>> 6] & (1L << i)) != 0) ? Double.NaN : longs[i];
+		}
+		return doubles[i];
+	}
+
+	/**
+	 * Get the backing array of a column of <code>long</code> values without copying it.  Only the first <code>size()</code> entries are values, and nulls are 0; check <code>isNull</code> to tell them apart.
+	 * @return the backing array, or <code>null</code> if the column holds <code>double</code> values.
+	 */
+	public long[] getLongs() {
+		return longs;
+	}
+
+	/**
+	 * Get the backing array of a column of <code>double</code> values without copying it.  Only the first <code>size()</code> entries are values, and nulls are <code>NaN</code>.
+	 * @return the backing array, or <code>null</code> if the column holds <code>long</code> values.
+	 */
+	public double[] getDoubles() {
+		return doubles;
+	}
+
+	/**
+	 * Copy the non-null values as <code>double</code> values, e.g. for <code>DataAnalyzer</code> or <code>StatisticalReporter</code>.
+	 * @return the non-null values in order.
+	 */
+	public double[] toDoubleArray() {
+		double[] values = new double[size - nullCount];
+		int j = 0;
+		for(int i = 0; i < size; i++) {
+			if((nulls[i >>> 6] & (1L << i)) == 0) {
+				values[j++] = integral ? longs[i] : doubles[i];
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Copy the non-null values as <code>long</code> values, truncating any fractions.
+	 * @return the non-null values in order.
+	 */
+	public long[] toLongArray() {
+		long[] values = new long[size - nullCount];
+		int j = 0;
+		for(int i = 0; i < size; i++) {
+			if((nulls[i >>> 6] & (1L << i)) == 0) {
+				values[j++] = integral ? longs[i] : (long) doubles[i];
+			}
+		}
+		return values;
+	}
+
+	private void grow() {
+		int capacity = integral ? longs.length : doubles.length;
+		if(size < capacity) {
+			return;
+		}
+		int c = (capacity > Integer.MAX_VALUE / 2) ? Integer.MAX_VALUE - 8 : capacity * 2;
+		if(c <= size) {
+			throw new IllegalStateException("Column " + name + " cannot hold more than " + size + " values");
+		}
+		if(integral) {
+			longs = Arrays.copyOf(longs, c);
+		} else {
+			doubles = Arrays.copyOf(doubles, c);
+		}
+		nulls = Arrays.copyOf(nulls, (c + 63) >>> 6);
+	}
+
+	private void check(int i) {
+		if(i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class ParallelGZIPOutputStream extends OutputStream {
+
+	public static final int defaultBlockSize = 4 * 1024 * 1024;	// 4 MB per gzip member; large enough that splitting barely affects the compression ratio
+
+	private OutputStream out;
+	private ExecutorService pool;
+	private int blockSize;
+	private int level;
+	private byte[] block;
+	private int count;
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+	private boolean wroteMember;
+
+	/**
+	 * Default constructor to compress everything written to this stream into the given stream using all available processors and the default block size and compression level.
+	 * @param o the stream to receive the compressed data.
+	 */
+	public ParallelGZIPOutputStream(OutputStream o) {
+		this(o, Runtime.getRuntime().availableProcessors(), defaultBlockSize, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Constructor to compress everything written to this stream into the given stream.  Each block is compressed on its own thread into a complete gzip member and the members are written in order, forming a multi-member gzip file that any gzip reader decompresses as one stream.
+	 * @param o the stream to receive the compressed data.
+	 * @param threads the number of blocks compressed at once.
+	 * @param size the number of uncompressed bytes in each block.
+	 * @param compressionLevel the <code>Deflater</code> compression level.
+	 */
+	public ParallelGZIPOutputStream(OutputStream o, int threads, int size, int compressionLevel) {
+		out = o;
+		pool = Executors.newFixedThreadPool(threads);
+		blockSize = size;
+		level = compressionLevel;
+		block = new byte[blockSize];
+		pending = new ArrayDeque<Future<byte[]>>();
+		maxPending = threads * 2;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(count == blockSize) {
+			submit();
+		}
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(count == blockSize) {
+				submit();
+			}
+			int n = Math.min(len, blockSize - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Compress and write everything written so far.  Each flush ends the current gzip member, so flushing often costs compression.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if(count > 0) {
+			submit();
+		}
+		while(!pending.isEmpty()) {
+			writeOldest();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			if(!wroteMember) {
+				// an empty file is not valid gzip, so write one empty member
+				out.write(compress(new byte[0], 0));
+			}
+			out.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void submit() throws IOException {
+		final byte[] data = block;
+		final int len = count;
+		pending.add(pool.submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				return compress(data, len);
+			}
+		}));
+		block = new byte[blockSize];
+		count = 0;
+		if(pending.size() >= maxPending) {
+			writeOldest();
+		}
+	}
+
+	private void writeOldest() throws IOException {
+		try {
+			out.write(pending.poll().get());
+			wroteMember = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to compress block", e.getCause());
+		}
+	}
+
+	private byte[] compress(byte[] data, int len) throws IOException {
+		ByteArrayOutputStream member = new ByteArrayOutputStream(len / 2 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(member, 64 * 1024) {
+			{
+				def.setLevel(level);
+			}
+		};
+		gzip.write(data, 0, len);
+		gzip.close();
+		return member.toByteArray();
+	}
+
+}
@@ -0,0 +1,414 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SQLConnectionPool {
+
+	public static final int defaultMinSize = 1;
+	public static final int defaultMaxSize = 10;
+	public static final long defaultIdleTimeout = 5 * 60 * 1000;	// 5 minutes, the time after which connections above the minimum are closed
+	public static final long defaultBorrowTimeout = 30 * 1000;	// 30 seconds, the time to wait for a free connection before giving up
+	public static final int defaultValidationTimeout = 2;	// seconds
+	public static final int defaultStatementCacheSize = 64;	// prepared statements kept open per connection
+
+	private static final ConcurrentHashMap<String, SQLConnectionPool> shared = new ConcurrentHashMap<String, SQLConnectionPool>();
+	private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SQLConnectionPool evictor");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private String url;
+	private Properties info;
+	private int minSize;
+	private int maxSize;
+	private volatile long idleTimeout;
+	private volatile long borrowTimeout;
+	private volatile int validationTimeout;
+	private volatile int statementCacheSize;
+	private ConcurrentHashMap<Connection, StatementCache> statements;
+	private Semaphore permits;	// one permit per connection that may still be borrowed
+	private LinkedBlockingDeque<PooledConnection> idle;
+	private AtomicInteger open;
+	private volatile boolean closed;
+
+	/**
+	 * Idle connection and the time it was returned to the pool.
+	 */
+	private static class PooledConnection {
+		Connection connection;
+		long returned;
+
+		PooledConnection(Connection c) {
+			connection = c;
+			returned = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Prepared statements of one connection keyed by their SQL, closing the least recently used statement when full.  Only the thread that has borrowed the connection touches its cache.
+	 */
+	private class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+		private static final long serialVersionUID = 1L;
+
+		StatementCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if(size() > statementCacheSize) {
+				close(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+
+		void closeAll() {
+			for(PreparedStatement s : values()) {
+				close(s);
+			}
+			clear();
+		}
+
+		private void close(PreparedStatement s) {
+			try {
+				s.close();
+			} catch (SQLException e) {
+				// the statement is being thrown away anyway
+			}
+		}
+	}
+
+	/**
+	 * Default constructor to create a pool of connections to the given JDBC URL, e.g. <code>jdbc:mysql://host/db</code> or <code>jdbc:h2:mem:test;MODE=MySQL</code>.  The minimum number of connections is opened immediately.
+	 * @param jdbcURL the JDBC URL of the database.
+	 * @param user the username.
+	 * @param pass the password.
+	 * @param min the number of connections kept open even when idle.
+	 * @param max the maximum number of connections open at once.
+	 */
+	public SQLConnectionPool(String jdbcURL, String user, String pass, int min, int max) {
+		if(min < 0 || max < 1 || min > max) {
+			throw new IllegalArgumentException("Invalid pool size: min " + min + ", max " + max);
+		}
+		url = jdbcURL;
+		info = new Properties();
+		if(user != null) {
+			info.setProperty("user", user);
+		}
+		if(pass != null) {
+			info.setProperty("password", pass);
+		}
+		minSize = min;
+		maxSize = max;
+		idleTimeout = defaultIdleTimeout;
+		borrowTimeout = defaultBorrowTimeout;
+		validationTimeout = defaultValidationTimeout;
+		statementCacheSize = defaultStatementCacheSize;
+		statements = new ConcurrentHashMap<Connection, StatementCache>();
+		permits = new Semaphore(maxSize, true);
+		idle = new LinkedBlockingDeque<PooledConnection>();
+		open = new AtomicInteger();
+
+		try {
+			fill();
+		} catch(SQLException e) {
+			System.out.println("SQLException: " + e.getMessage());
+			System.out.println("SQLState: " + e.getSQLState());
+		}
+		scheduleEviction();
+	}
+
+	/**
+	 * Get the pool shared by every caller using the same URL and username, creating it with the default sizes if it does not exist yet.
+	 * @param jdbcURL the JDBC URL of the database.
+	 * @param user the username.
+	 * @param pass the password.
+	 * @return the shared pool.
+	 */
+	public static SQLConnectionPool getShared(String jdbcURL, String user, String pass) {
+		String key = user + "@" + jdbcURL;
+		SQLConnectionPool pool = shared.get(key);
+		if(pool == null || pool.closed) {
+			synchronized(shared) {
+				pool = shared.get(key);
+				if(pool == null || pool.closed) {
+					pool = new SQLConnectionPool(jdbcURL, user, pass, defaultMinSize, defaultMaxSize);
+					shared.put(key, pool);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Get the JDBC URL of the database.
+	 * @return the JDBC URL
+	 */
+	public String getURL() {
+		return url;
+	}
+
+	/**
+	 * Set how long a connection above the minimum may sit idle before it is closed.
+	 * @param ms the idle timeout in ms.
+	 */
+	public void setIdleTimeout(long ms) {
+		idleTimeout = ms;
+	}
+
+	/**
+	 * Set how long <code>borrow()</code> waits for a connection when all of them are in use.
+	 * @param ms the borrow timeout in ms.
+	 */
+	public void setBorrowTimeout(long ms) {
+		borrowTimeout = ms;
+	}
+
+	/**
+	 * Set how long to wait for a connection to prove it is still alive when it is borrowed.
+	 * @param seconds the validation timeout in seconds.
+	 */
+	public void setValidationTimeout(int seconds) {
+		validationTimeout = seconds;
+	}
+
+	/**
+	 * Set how many prepared statements each connection keeps open for reuse.  0 disables statement caching.
+	 * @param size the number of statements cached per connection.
+	 */
+	public void setStatementCacheSize(int size) {
+		statementCacheSize = size;
+	}
+
+	/**
+	 * @return the number of connections currently open, whether idle or borrowed
+	 */
+	public int getOpenCount() {
+		return open.get();
+	}
+
+	/**
+	 * @return the number of open connections waiting to be borrowed
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return the number of connections currently borrowed
+	 */
+	public int getActiveCount() {
+		return maxSize - permits.availablePermits();
+	}
+
+	/**
+	 * @return the maximum number of connections open at once
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Borrow a connection, waiting up to the borrow timeout if all connections are in use.  The most recently returned idle connection is preferred, and it is validated before it is handed out.  Every borrowed connection must be given back with <code>release</code>.
+	 * @return an open, validated connection.
+	 * @throws SQLException if no connection became free in time or a new connection could not be opened.
+	 */
+	public Connection borrow() throws SQLException {
+		if(closed) {
+			throw new SQLException("Connection pool for " + url + " is closed");
+		}
+		try {
+			if(!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out after " + borrowTimeout + " ms waiting for a connection to " + url);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+		}
+
+		try {
+			PooledConnection p;
+			while((p = idle.pollFirst()) != null) {
+				if(valid(p.connection)) {
+					return p.connection;
+				}
+				discard(p.connection);
+			}
+			Connection c = DriverManager.getConnection(url, info);
+			open.incrementAndGet();
+			return c;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Prepare a statement on a borrowed connection, reusing the statement prepared earlier on the same connection for the same SQL.  Cached statements stay open when the connection is released, so the caller must hand each statement to <code>finish</code> rather than closing it.
+	 * @param c a connection borrowed from this pool.
+	 * @param sql the SQL of the statement, with <code>?</code> placeholders for its values.
+	 * @return an open statement with no parameters set.
+	 * @throws SQLException if the statement cannot be prepared.
+	 */
+	public PreparedStatement prepare(Connection c, String sql) throws SQLException {
+		if(statementCacheSize <= 0) {
+			return c.prepareStatement(sql);
+		}
+		StatementCache cache = statements.get(c);
+		if(cache == null) {
+			cache = new StatementCache();
+			statements.put(c, cache);
+		}
+		PreparedStatement s = cache.get(sql);
+		if(s == null || s.isClosed()) {
+			s = c.prepareStatement(sql);
+			cache.put(sql, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Finish with a statement from <code>prepare</code>, clearing its parameters so it can be reused or closing it if statement caching is disabled.  Any result set still open on the statement is closed.
+	 * @param s the statement.
+	 * @throws SQLException if the statement cannot be reset.
+	 */
+	public void finish(PreparedStatement s) throws SQLException {
+		if(statementCacheSize <= 0) {
+			s.close();
+		} else if(!s.isClosed()) {
+			ResultSet r = s.getResultSet();
+			if(r != null) {
+				r.close();
+			}
+			s.clearParameters();
+		}
+	}
+
+	/**
+	 * Return a borrowed connection to the pool.  Connections that are closed or left in a transaction are discarded rather than reused.
+	 * @param c the connection, which must not be used again by the caller.
+	 */
+	public void release(Connection c) {
+		if(c == null) {
+			return;
+		}
+		try {
+			if(closed || c.isClosed()) {
+				discard(c);
+			} else {
+				if(!c.getAutoCommit()) {
+					c.rollback();
+					c.setAutoCommit(true);
+				}
+				idle.offerFirst(new PooledConnection(c));
+			}
+		} catch (SQLException e) {
+			discard(c);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Close every idle connection and refuse further borrowing.  Borrowed connections are closed as they are released.
+	 */
+	public void close() {
+		closed = true;
+		PooledConnection p;
+		while((p = idle.pollFirst()) != null) {
+			discard(p.connection);
+		}
+	}
+
+	/**
+	 * Close connections that have been idle longer than the idle timeout, keeping at least the minimum number open, then reopen connections up to the minimum.
+	 */
+	void evict() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		Iterator<PooledConnection> oldest = idle.descendingIterator();
+		while(oldest.hasNext() && open.get() > minSize) {
+			PooledConnection p = oldest.next();
+			if(p.returned < cutoff && idle.removeLastOccurrence(p)) {
+				discard(p.connection);
+			}
+		}
+		try {
+			fill();
+		} catch (SQLException e) {
+			System.out.println("SQLException: " + e.getMessage());
+		}
+	}
+
+	private void fill() throws SQLException {
+		while(!closed && open.get() < minSize && permits.tryAcquire()) {
+			try {
+				Connection c = DriverManager.getConnection(url, info);
+				open.incrementAndGet();
+				idle.offerLast(new PooledConnection(c));
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	private boolean valid(Connection c) {
+		try {
+			return c.isValid(validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(Connection c) {
+		open.decrementAndGet();
+		StatementCache cache = statements.remove(c);
+		if(cache != null) {
+			cache.closeAll();
+		}
+		try {
+			c.close();
+		} catch (SQLException e) {
+			// the connection is being thrown away anyway
+		}
+	}
+
+	private void scheduleEviction() {
+		final long period = Math.max(1000, idleTimeout / 2);
+		evictor.schedule(new Runnable() {
+			public void run() {
+				if(!closed) {
+					evict();
+					scheduleEviction();
+				}
+			}
+		}, period, TimeUnit.MILLISECONDS);
+	}
+
+}
@@ -1,41 +1,107 @@
 package org.futurist.util;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 
 public class SQLHelper {
 
+	public static final int defaultBatchSize = 1000;
+	public static final int defaultFetchSize = 1000;
+	private static final int maxPlaceholders = 65535;	// MySQL's limit on the parameters of one prepared statement
+
+	// looking up the factory takes a system property read and a service load, so it is only done once
+	private static final RowSetFactory rowSets;
+	static {
+		try {
+			rowSets = RowSetProvider.newFactory();
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	private String server;
 	private String user;
 	private String pass;
 	private String db;
+	private SQLConnectionPool pool;
+	private SQLReplicaRouter router;
+	private volatile int batchSize = defaultBatchSize;
+	private volatile boolean rewriteBatches;
+	private volatile int fetchSize = defaultFetchSize;
+	private volatile SQLResultCache resultCache;
+	private volatile SQLMetrics metrics = new SQLMetrics();
 
-	public Connection mysql;
-	public PreparedStatement ps;
-	public ResultSet rs;
+	/**
+	 * Callback for each row of a streamed query.
+	 */
+	public interface RowHandler {
+		/**
+		 * Handle one row.  The row is only valid until this method returns.
+		 * @param row the result set positioned at the row.
+		 * @throws SQLException if a column cannot be read.
+		 */
+		void handle(ResultSet row) throws SQLException;
+	}
 
 	/**
-	 * Default constructor to create a SQLHelper.
+	 * Converts each row of a streamed query into an object.
+	 */
+	public interface RowMapper<T> {
+		/**
+		 * Convert one row.
+		 * @param row the result set positioned at the row.
+		 * @return the object made from the row.
+		 * @throws SQLException if a column cannot be read.
+		 */
+		T map(ResultSet row) throws SQLException;
+	}
+
+	/**
+	 * Default constructor to create a SQLHelper.  Connections are borrowed from the pool shared by every SQLHelper for the same server, database and user.
 	 * @param dbServer the database server name or IP address.
 	 * @param dbName the database name.
 	 * @param user the username.
 	 * @param pass the password.
 	 */
 	public SQLHelper(String dbServer, String dbName, String u, String p) {
+		this(SQLConnectionPool.getShared("jdbc:mysql://" + dbServer + "/" + dbName, u, p));
 		server = dbServer;
+		db = dbName;
 		user = u;
 		pass = p;
-		db = dbName;
+	}
 
-		try {
-			mysql = DriverManager.getConnection("jdbc:mysql://" + server + "/" + db + "?user=" + user + "&password=" + pass);
-		} catch(SQLException e) {
-			System.out.println("SQLException: " + e.getMessage());
-			System.out.println("SQLState: " + e.getSQLState());
-		}
+	/**
+	 * Constructor to create a SQLHelper for any JDBC URL, e.g. <code>jdbc:h2:mem:test;MODE=MySQL</code>, using the pool shared by every SQLHelper for the same URL and user.
+	 * @param jdbcURL the JDBC URL of the database.
+	 * @param u the username.
+	 * @param p the password.
+	 */
+	public SQLHelper(String jdbcURL, String u, String p) {
+		this(SQLConnectionPool.getShared(jdbcURL, u, p));
+		user = u;
+		pass = p;
+	}
+
+	/**
+	 * Constructor to create a SQLHelper that borrows its connections from the given pool.
+	 * @param connections the connection pool.
+	 */
+	public SQLHelper(SQLConnectionPool connections) {
+		pool = connections;
+		router = new SQLReplicaRouter(pool);
 	}
 
 	/**
@@ -69,48 +135,98 @@ public class SQLHelper {
 	public String getDatabase() {
 		return db;
 	}
+
+	/**
+	 * Get the pool this SQLHelper borrows its connections from.
+	 * @return the connection pool
+	 */
+	public SQLConnectionPool getPool() {
+		return pool;
+	}
 	
 	/**
-	 * Get usage and load statistics from this connection.
+	 * Send reads to the given replica as well as any added before.  Plain SELECTs, including streamed ones, go to the replica serving the fewest reads at the time; every other statement goes to the primary.  Reads are not guaranteed to see writes made moments earlier, since replicas lag the primary.
+	 * @param replica the pool of the replica.
+	 */
+	public void addReplica(SQLConnectionPool replica) {
+		router.addReplica(replica);
+	}
+
+	/**
+	 * Get the router choosing between the primary and its replicas, e.g. to skip replicas that fall too far behind with <code>setMaxLag</code>.
+	 * @return the replica router
+	 */
+	public SQLReplicaRouter getRouter() {
+		return router;
+	}
+
+	/**
+	 * Set how many rows <code>insertBatch</code> sends to the database and commits at once.
+	 * @param size the number of rows per batch.
+	 */
+	public void setBatchSize(int size) {
+		if(size < 1) {
+			throw new IllegalArgumentException("Batch size must be positive: " + size);
+		}
+		batchSize = size;
+	}
+
+	/**
+	 * Set whether <code>insertBatch</code> sends each batch as one multi-row INSERT instead of a JDBC batch of single-row INSERTs.  This does on the client what MySQL Connector/J's <code>rewriteBatchedStatements</code> does in the driver, so it helps with any driver that sends batched statements one at a time; when the URL already sets <code>rewriteBatchedStatements=true</code>, the driver is left to do it.
+	 * A batch is split into several INSERTs if it would need more than 65,535 placeholders, MySQL's limit.  Each INSERT must also fit in the server's <code>max_allowed_packet</code>, so lower the batch size for tables with large rows.
+	 * @param rewrite true to send multi-row INSERTs.
+	 */
+	public void setRewriteBatchedStatements(boolean rewrite) {
+		rewriteBatches = rewrite;
+	}
+
+	/**
+	 * Set how many rows a streamed query fetches from the server at a time.  MySQL only honors this with <code>useCursorFetch=true</code> in the URL; otherwise MySQL queries are streamed one row at a time.
+	 * @param size the number of rows per fetch.
+	 */
+	public void setFetchSize(int size) {
+		fetchSize = size;
+	}
+
+	/**
+	 * Answer repeated reads from the given cache.  Every statement this SQLHelper runs that writes a table drops the cached results read from that table, so a cache should only be shared by helpers that make all the writes to the tables it covers.
+	 * @param cache the result cache, or <code>null</code> to stop caching.
+	 */
+	public void setResultCache(SQLResultCache cache) {
+		resultCache = cache;
+	}
+
+	/**
+	 * Get the cache answering repeated reads.
+	 * @return the result cache, or <code>null</code> if results are not cached
+	 */
+	public SQLResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Record the latency, rows, bytes and errors of every statement in the given metrics instead of this SQLHelper's own, e.g. to combine several helpers.
+	 * @param m the statement metrics.
+	 */
+	public void setMetrics(SQLMetrics m) {
+		metrics = m;
+	}
+
+	/**
+	 * Get the latency, rows, bytes and errors of every statement this SQLHelper has run, grouped by statement shape.  Use <code>SQLMetrics.register</code> to publish them over JMX.
+	 * @return the statement metrics
+	 */
+	public SQLMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Get usage and load statistics from this connection.  This reads the server status once; use a <code>SQLStatusSampler</code> to track the status over time and compute rates, or to see the other variables it samples.
 	 * @return the statistics.
 	 */
 	public String getStats() throws SQLException {
-		String results = "";		
-		ps = mysql.prepareStatement("SHOW GLOBAL STATUS");
-		ResultSet r = ps.executeQuery();
-		
-		while(r.next()) {			
-			if(r.getString(1).equals("Bytes_received")) {
-				results += "Bytes Received:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Bytes_sent")) {
-				results += "Bytes Sent:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Open_files")) {
-				results += "Open Files:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Open_tables")) {
-				results += "Open Tables:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Questions")) {
-				results += "Statements Executed:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Slow_queries")) {
-				results += "Slow Queries:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Threads_connected")) {
-				results += "Open Connections:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Threads_running")) {
-				results += "Threads Running:\t" + r.getString(2) + "\n";
-			}
-			if(r.getString(1).equals("Uptime")) {
-				results += "Uptime:\t" + r.getString(2) + "\n";
-			}
-		
-		}
-		
-		return results;
+		return new SQLStatusSampler(this).sample().format(SQLStatusSampler.Status.BYTES_RECEIVED, SQLStatusSampler.Status.BYTES_SENT, SQLStatusSampler.Status.OPEN_FILES, SQLStatusSampler.Status.OPEN_TABLES,
+				SQLStatusSampler.Status.QUESTIONS, SQLStatusSampler.Status.SLOW_QUERIES, SQLStatusSampler.Status.THREADS_CONNECTED, SQLStatusSampler.Status.THREADS_RUNNING, SQLStatusSampler.Status.UPTIME);
 	}
 	
 	/**
@@ -121,9 +237,7 @@ public class SQLHelper {
 		Boolean result = true;
 	
 			try {
-				if(mysql.isClosed()) {
-					result = false;
-				}
+				pool.release(pool.borrow());
 			} catch (SQLException e) {
 				result = false;
 			}
@@ -139,15 +253,20 @@ public class SQLHelper {
 	 * @throws SQLException
 	 */
 	public ResultSet select(String[] colNames, String table) throws SQLException {
-		String query = "SELECT ";
-		for(String c : colNames) {
-			query += c + ", ";
-		}
-		query = query.substring(0, query.lastIndexOf(","));
-		query += " FROM " + table;
+		return execute("SELECT " + join(colNames) + " FROM " + table);
+	}
 
-		ps = mysql.prepareStatement(query);	
-		return ps.executeQuery();
+	/**
+	 * Scan the given columns of a large table in pages ordered by a key column, so that memory use stays bounded and no long-running query holds locks.
+	 * @param colNames the names of the columns you wish to select.
+	 * @param table the table containing the columns you wish to select.
+	 * @param keyColumn the name of a unique, indexed column to page by, usually the primary key.
+	 * @param pageSize the number of rows fetched per page.
+	 * @param prefetch true to fetch each next page on another thread while the current page is read.
+	 * @return an iterator over the rows in key order.
+	 */
+	public SQLKeysetScan scan(String[] colNames, String table, String keyColumn, int pageSize, boolean prefetch) {
+		return new SQLKeysetScan(this, table, colNames, keyColumn, pageSize, prefetch);
 	}
 
 	/**
@@ -156,7 +275,7 @@ public class SQLHelper {
 	 * @param colNames the names of the columns you wish to select.
 	 * @param whereFields the column names used to filter selections.
 	 * @param whereOperators the operators used for comparison like >, >=, =, <>, <, <=, LIKE, BETWEEN, and IN.
-	 * @param whereValues the values used to filter selections in the given whereFields.
+	 * @param whereValues the values used to filter selections in the given whereFields.  Values for IN are separated by commas and values for BETWEEN by AND.
 	 * @return the <code>ResultSet</code> created by executing the SELECT WHERE statement.
 	 * @throws SQLException
 	 */
@@ -164,20 +283,11 @@ public class SQLHelper {
 	public ResultSet selectWhere(String table, String[] colNames, String[] whereFields, String[] whereOperators, String[] whereValues) {
 		ResultSet r = null;
 
-		String query = "SELECT ";
-		for(String c : colNames) {
-			query += c + ", ";
-		}
-		query = query.substring(0, query.lastIndexOf(","));
-		query += " FROM " + table;
-		query += " WHERE ";
-		for(int i = 0; i < whereFields.length; i++ ){ 
-			query += whereFields[i] + " " + whereOperators[i] + "'" + whereValues[i] + "'";
-		}
+		ArrayList<Object> params = new ArrayList<Object>();
+		String query = "SELECT " + join(colNames) + " FROM " + table + where(whereFields, whereOperators, whereValues, params);
 
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query, params.toArray());
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -185,6 +295,23 @@ public class SQLHelper {
 		}
 	}
 	
+	/**
+	 * Stream the given columns from the given table that match the conditions set by the where clause, handing each row to the given handler as it arrives, as for <code>stream</code>, rather than holding the results in memory.
+	 * @param table the table containing the columns you wish to select.
+	 * @param colNames the names of the columns you wish to select.
+	 * @param whereFields the column names used to filter selections.
+	 * @param whereOperators the operators used for comparison like >, >=, =, <>, <, <=, LIKE, BETWEEN, and IN.
+	 * @param whereValues the values used to filter selections in the given whereFields.  Values for IN are separated by commas and values for BETWEEN by AND.
+	 * @param handler the callback for each row.
+	 * @return the number of rows handled.
+	 * @throws SQLException if the query or the handler fails.
+	 */
+	public long streamWhere(String table, String[] colNames, String[] whereFields, String[] whereOperators, String[] whereValues, RowHandler handler) throws SQLException {
+		ArrayList<Object> params = new ArrayList<Object>();
+		String query = "SELECT " + join(colNames) + " FROM " + table + where(whereFields, whereOperators, whereValues, params);
+		return stream(query, handler, params.toArray());
+	}
+
 	@SuppressWarnings("finally")
 	/**
 	 * Select all rows from the srcTable in the current database and copy them into the destination table in the destination database. 
@@ -196,10 +323,9 @@ public class SQLHelper {
 	public ResultSet selectInto(String srcTable, String dstDB, String dstTable) {
 		ResultSet r = null;
 		
-		String query = "SELECT * INTO" + dstTable + " IN " + dstDB + " FROM " + srcTable;
+		String query = "SELECT * INTO " + dstTable + " IN " + dstDB + " FROM " + srcTable;
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -222,20 +348,11 @@ public class SQLHelper {
 	public ResultSet selectIntoWhere(String srcTable, String[] colNames, String dstDB, String dstTable, String[] whereFields, String[] whereOperators, String[] whereValues) {
 		ResultSet r = null;
 		
-		String query = "SELECT ";
-		for(String c : colNames) {
-			query += c + ", ";
-		}
-		query = query.substring(0, query.lastIndexOf(","));
-		query += " INTO " + dstTable + " IN " + dstDB + " FROM " + srcTable;
-		query += " WHERE ";
-		for(int i = 0; i < whereFields.length; i++ ){ 
-			query += whereFields[i] + " " + whereOperators[i] + "'" + whereValues[i] + "'";
-		}
+		ArrayList<Object> params = new ArrayList<Object>();
+		String query = "SELECT " + join(colNames) + " INTO " + dstTable + " IN " + dstDB + " FROM " + srcTable + where(whereFields, whereOperators, whereValues, params);
 		
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query, params.toArray());
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -248,32 +365,17 @@ public class SQLHelper {
 	 * @param table the table into which you wish to insert the given values.
 	 * @param colNames the names of the columns into which you wish to insert values.
 	 * @param values the values to insert into the given table.
-	 * @return the <code>ResultSet</code> created by executing the INSERT statement.
+	 * @return the <code>ResultSet</code> created by executing the INSERT statement, which is always <code>null</code>.
 	 * @throws SQLException
 	 */
 	@SuppressWarnings("finally")
 	public ResultSet insert(String table, String[] colNames, String[] values) {
 		ResultSet r = null;
 
-		String query = "INSERT INTO" + table + " (";
-		for(String c : colNames) {
-			query += c + ", ";
-		}
-		query = query.substring(0, query.lastIndexOf(","));
-		query += ") VALUES (";
-		for(int i = 0; i < values.length; i++ ){ 
-			Double numVal = Double.valueOf(values[i]);
-			if(numVal != null && numVal != Double.NaN) {
-				query += values[i];
-			} else {
-				query += "'" + values[i] + "'";
-			}
-		}
-		query += ")";
+		String query = "INSERT INTO " + table + " (" + join(colNames) + ") VALUES (" + placeholders(values.length) + ")";
 
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query, (Object[]) values);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -281,6 +383,64 @@ public class SQLHelper {
 		}	
 	}
 
+	/**
+	 * Insert many rows into the given columns in the given table over one pooled connection.  Rows are sent in batches of <code>setBatchSize</code> rows and each batch is committed as its own transaction, so a failure leaves every earlier batch in place and rolls back only the batch that failed.
+	 * @param table the table into which you wish to insert the given rows.
+	 * @param colNames the names of the columns into which you wish to insert values.
+	 * @param rows the rows to insert, each holding one value per column.
+	 * @return the number of rows inserted.
+	 * @throws SQLException if a batch fails or a row does not hold one value per column; the rows of earlier batches remain committed.
+	 * @throws IllegalArgumentException if no columns are given.
+	 */
+	public int insertBatch(String table, String[] colNames, Iterable<Object[]> rows) throws SQLException {
+		checkColumns(colNames);
+		String prefix = "INSERT INTO " + table + " (" + join(colNames) + ") VALUES ";
+		String row = "(" + placeholders(colNames.length) + ")";
+		return runBatches(table, colNames.length, prefix, row, "", rows);
+	}
+
+	/**
+	 * Insert many rows, updating the rows that already exist instead, in batches of <code>setBatchSize</code> rows.  MySQL runs <code>INSERT ... ON DUPLICATE KEY UPDATE</code> and H2 runs <code>MERGE INTO ... KEY (...)</code>.  Each batch is committed in its own transaction, as for <code>insertBatch</code>, and takes one round-trip when batches are rewritten or the driver rewrites them itself.
+	 * @param table the table into which you wish to upsert the given rows.
+	 * @param colNames the names of the columns into which you wish to write values.
+	 * @param conflictCols the columns that identify an existing row.  MySQL matches on any primary or unique key instead, so these must be covered by one.
+	 * @param rows the rows to upsert, each holding one value per column.
+	 * @return the number of rows upserted.
+	 * @throws SQLException if a batch fails or a row does not hold one value per column; the rows of earlier batches remain committed.
+	 * @throws IllegalArgumentException if no columns are given.
+	 * @throws SQLFeatureNotSupportedException if the database is neither MySQL nor H2.
+	 */
+	public int upsertBatch(String table, String[] colNames, String[] conflictCols, Iterable<Object[]> rows) throws SQLException {
+		checkColumns(colNames);
+		checkColumns(conflictCols);
+		String url = pool.getURL();
+		String prefix;
+		String suffix = "";
+		if(url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+			prefix = "INSERT INTO " + table + " (" + join(colNames) + ") VALUES ";
+			String updates = "";
+			for(String col : colNames) {
+				boolean conflict = false;
+				for(String k : conflictCols) {
+					conflict |= k.equalsIgnoreCase(col);
+				}
+				if(!conflict) {
+					updates += (updates.isEmpty() ? "" : ", ") + col + " = VALUES(" + col + ")";
+				}
+			}
+			if(updates.isEmpty()) {
+				updates = conflictCols[0] + " = " + conflictCols[0];	// every column is a key, so there is nothing to update
+			}
+			suffix = " ON DUPLICATE KEY UPDATE " + updates;
+		} else if(url.startsWith("jdbc:h2:")) {
+			prefix = "MERGE INTO " + table + " (" + join(colNames) + ") KEY (" + join(conflictCols) + ") VALUES ";
+		} else {
+			throw new SQLFeatureNotSupportedException("Upsert is not supported for " + url);
+		}
+		String row = "(" + placeholders(colNames.length) + ")";
+		return runBatches(table, colNames.length, prefix, row, suffix, rows);
+	}
+
 	/**
 	 * Delete the given columns from the given table that match the conditions set by the where clause.
 	 * @param table the table containing the columns you wish to delete.
@@ -288,27 +448,18 @@ public class SQLHelper {
 	 * @param whereFields the column names used to filter selections.
 	 * @param whereOperators the operators used for comparison like >, >=, =, <>, <, <=, LIKE, BETWEEN, and IN.
 	 * @param whereValues the values used to filter selections in the given whereFields.
-	 * @return the <code>ResultSet</code> created by executing the DELETE WHERE statement.
+	 * @return the <code>ResultSet</code> created by executing the DELETE WHERE statement, which is always <code>null</code>.
 	 * @throws SQLException
 	 */
 	@SuppressWarnings("finally")
 	public ResultSet deleteWhere(String table, String[] colNames, String[] whereFields, String[] whereOperators, String[] whereValues) {
 		ResultSet r = null;
 
-		String query = "DELETE FROM " + table + " WHERE ";
-		for(int i = 0; i < whereFields.length; i++ ){ 
-			query += whereFields[i] + " " + whereOperators[i];
-			Double numVal = Double.valueOf(whereValues[i]);
-			if(numVal != null && numVal != Double.NaN) {
-				query += whereValues[i];
-			} else {
-				query += "'" + whereValues[i] + "'";
-			}
-		}
+		ArrayList<Object> params = new ArrayList<Object>();
+		String query = "DELETE FROM " + table + where(whereFields, whereOperators, whereValues, params);
 
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query, params.toArray());
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -323,39 +474,23 @@ public class SQLHelper {
 	 * @param whereFields the column names used to filter selections.
 	 * @param whereOperators the operators used for comparison like >, >=, =, <>, <, <=, LIKE, BETWEEN, and IN.
 	 * @param whereValues the values used to filter selections in the given whereFields.
-	 * @return the <code>ResultSet</code> created by executing the UPDATE WHERE statement.
+	 * @return the <code>ResultSet</code> created by executing the UPDATE WHERE statement, which is always <code>null</code>.
 	 * @throws SQLException
 	 */
 	@SuppressWarnings("finally")
 	public ResultSet update(String table, String[] colNames, String[] newValues, String[] whereFields, String[] whereOperators, String[] whereValues) {
 		ResultSet r = null;
 
+		ArrayList<Object> params = new ArrayList<Object>();
 		String query = "UPDATE " + table + " SET ";
-		for(int i = 0; i < newValues.length; i++ ){ 
-			query += colNames[i] + "=";
-			Double numVal = Double.valueOf(newValues[i]);
-			if(numVal != null && numVal != Double.NaN) {
-				query += newValues[i];
-			} else {
-				query += "'" + newValues[i] + "'";
-			}
-			query += ", ";
-		}
-		query = query.substring(0, query.lastIndexOf(","));
-		query += " WHERE ";
-		for(int j = 0; j < whereFields.length; j++ ){ 
-			query += whereFields[j] + " " + whereOperators[j];
-			Double numVal = Double.valueOf(whereValues[j]);
-			if(numVal != null && numVal != Double.NaN) {
-				query += whereValues[j];
-			} else {
-				query += "'" + whereValues[j] + "'";
-			}
+		for(int i = 0; i < newValues.length; i++) {
+			query += (i > 0 ? ", " : "") + colNames[i] + " = ?";
+			params.add(newValues[i]);
 		}
+		query += where(whereFields, whereOperators, whereValues, params);
 
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query, params.toArray());
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -373,8 +508,7 @@ public class SQLHelper {
 	public ResultSet query(String query) {
 		ResultSet r = null;
 		try {
-			ps = mysql.prepareStatement(query);
-			r = ps.executeQuery();
+			r = execute(query);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -382,4 +516,387 @@ public class SQLHelper {
 		}		
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Run a custom SQL query with <code>?</code> placeholders for its values.  The statement is prepared once per pooled connection and reused whenever the same SQL runs again.
+	 * @param query the SQL query to execute.
+	 * @param params the values bound to the placeholders, in order.
+	 * @return the <code>ResultSet</code> created by executing the statement, or <code>null</code> if it did not produce one.
+	 * @throws SQLException if the statement fails.
+	 */
+	public ResultSet query(String query, Object... params) throws SQLException {
+		return execute(query, params);
+	}
+
+	/**
+	 * Run a query and hand each row to the given handler as it arrives, without holding the results in memory.  The query runs on a forward-only, read-only statement of its own, which is closed along with its result set before this method returns; the pooled connection is held until then.
+	 * @param query the SQL query to execute, with <code>?</code> placeholders for its values.
+	 * @param handler the callback for each row.
+	 * @param params the values bound to the placeholders, in order.
+	 * @return the number of rows handled.
+	 * @throws SQLException if the query or the handler fails.
+	 */
+	public long stream(String query, RowHandler handler, Object... params) throws SQLException {
+		return stream(query, false, null, handler, params);
+	}
+
+	/**
+	 * Stream a query from the primary database, as for <code>stream</code>, for reads that must see every committed write.  Replicas are never used, however little they lag.
+	 * @param query the SQL query to execute, with <code>?</code> placeholders for its values.
+	 * @param handler the callback for each row.
+	 * @param params the values bound to the placeholders, in order.
+	 * @return the number of rows handled.
+	 * @throws SQLException if the query or the handler fails.
+	 */
+	public long streamPrimary(String query, RowHandler handler, Object... params) throws SQLException {
+		return stream(query, true, null, handler, params);
+	}
+
+	/**
+	 * Run a query and read the given columns straight into primitive arrays as the rows arrive, without boxing values or converting them to strings.  Integer columns are read as <code>long</code> values and every other column as <code>double</code> values, so each selected column must be numeric.
+	 * @param query the SQL query to execute, with <code>?</code> placeholders for its values.
+	 * @param params the values bound to the placeholders, in order.
+	 * @return one column of values per selected column, in order.
+	 * @throws SQLException if the query fails or a column is not numeric.
+	 */
+	public NumericColumn[] fetchColumns(String query, Object... params) throws SQLException {
+		final NumericColumn[][] columns = new NumericColumn[1][];
+		stream(query, false, new RowHandler() {
+			public void handle(ResultSet r) throws SQLException {
+				ResultSetMetaData meta = r.getMetaData();
+				columns[0] = new NumericColumn[meta.getColumnCount()];
+				for(int c = 0; c < columns[0].length; c++) {
+					columns[0][c] = new NumericColumn(meta.getColumnLabel(c + 1), isIntegral(meta.getColumnType(c + 1)), NumericColumn.defaultCapacity);
+				}
+			}
+		}, new RowHandler() {
+			public void handle(ResultSet row) throws SQLException {
+				for(int c = 0; c < columns[0].length; c++) {
+					NumericColumn column = columns[0][c];
+					if(column.isIntegral()) {
+						long v = row.getLong(c + 1);
+						if(row.wasNull()) {
+							column.addNull();
+						} else {
+							column.addLong(v);
+						}
+					} else {
+						double v = row.getDouble(c + 1);
+						if(row.wasNull()) {
+							column.addNull();
+						} else {
+							column.addDouble(v);
+						}
+					}
+				}
+			}
+		}, params);
+		return columns[0];
+	}
+
+	/**
+	 * Stream a query, first handing the result set to <code>opened</code>, if any, before it is positioned at a row.  Reads go to a replica unless <code>primary</code> is set.
+	 */
+	private long stream(String query, boolean primary, RowHandler opened, RowHandler handler, Object[] params) throws SQLException {
+		long start = System.nanoTime();
+		long rows = 0;
+		long rowBytes = 0;
+		boolean failed = true;
+		boolean readOnly = !primary && SQLResultCache.isRead(query);
+		SQLConnectionPool source = readOnly ? router.acquireRead() : pool;
+		Connection c = null;
+		try {
+			c = source.borrow();
+			PreparedStatement s = c.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			try {
+				s.setFetchSize(streamingFetchSize(source));
+				for(int i = 0; i < params.length; i++) {
+					s.setObject(i + 1, params[i]);
+				}
+				ResultSet r = s.executeQuery();
+				try {
+					rowBytes = SQLMetrics.estimateRowBytes(r.getMetaData());
+					if(opened != null) {
+						opened.handle(r);
+					}
+					while(r.next()) {
+						handler.handle(r);
+						rows++;
+					}
+				} finally {
+					r.close();
+				}
+			} finally {
+				s.close();
+			}
+			failed = false;
+		} finally {
+			source.release(c);
+			if(readOnly) {
+				router.release(source);
+			}
+			metrics.record(query, System.nanoTime() - start, rows, rows * rowBytes, failed);
+		}
+		return rows;
+	}
+
+	/**
+	 * Run a query, convert each row as it arrives and pass the result to the given consumer, without holding the results in memory.
+	 * @param query the SQL query to execute, with <code>?</code> placeholders for its values.
+	 * @param mapper the conversion from a row to an object.
+	 * @param consumer the receiver of each converted row.
+	 * @param params the values bound to the placeholders, in order.
+	 * @return the number of rows consumed.
+	 * @throws SQLException if the query or the mapper fails.
+	 */
+	public <T> long streamMapped(String query, final RowMapper<T> mapper, final Consumer<? super T> consumer, Object... params) throws SQLException {
+		return stream(query, new RowHandler() {
+			public void handle(ResultSet row) throws SQLException {
+				consumer.accept(mapper.map(row));
+			}
+		}, params);
+	}
+
+	/**
+	 * Run a statement on a borrowed connection and return the connection to the pool before returning.  Reads are answered from the result cache when possible and writes drop the cached results of the tables they touch.  The statement comes from the connection's statement cache, so statements with the same SQL are only parsed once per connection.  Any results are copied into a disconnected <code>CachedRowSet</code>, so they stay readable after the connection has gone back to the pool.
+	 * @param query the SQL statement to execute.
+	 * @param params the values bound to the statement's placeholders.
+	 * @return the results of the statement, or <code>null</code> if it did not produce a result set.
+	 * @throws SQLException if no connection is available or the statement fails.
+	 */
+	private ResultSet execute(String query, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		long rows = 0;
+		long bytes = 0;
+		boolean failed = true;
+		SQLResultCache cache = resultCache;
+		boolean readOnly = SQLResultCache.isRead(query);
+		boolean read = cache != null && readOnly;
+		try {
+			long generation = 0;
+			if(read) {
+				CachedRowSet hit = cache.get(query, params);
+				if(hit != null) {
+					rows = hit.size();
+					failed = false;
+					return hit;
+				}
+				generation = cache.getGeneration();
+			}
+
+			SQLConnectionPool source = readOnly ? router.acquireRead() : pool;
+			Connection c = null;
+			try {
+				c = source.borrow();
+				PreparedStatement s = source.prepare(c, query);
+				try {
+					ResultSet results = null;
+					for(int i = 0; i < params.length; i++) {
+						s.setObject(i + 1, params[i]);
+					}
+					if(s.execute()) {
+						ResultSet live = s.getResultSet();
+						CachedRowSet cached = rowSets.createCachedRowSet();
+						cached.populate(live);
+						live.close();
+						rows = cached.size();
+						bytes = rows * SQLMetrics.estimateRowBytes(cached.getMetaData());
+						results = cached;
+						if(read) {
+							cache.put(generation, query, params, cached);
+						}
+					} else {
+						rows = Math.max(0, s.getUpdateCount());
+					}
+					failed = false;
+					return results;
+				} finally {
+					source.finish(s);
+				}
+			} finally {
+				source.release(c);
+				if(readOnly) {
+					router.release(source);
+				}
+				if(cache != null && !readOnly) {
+					cache.invalidateWritten(query);
+				}
+			}
+		} finally {
+			metrics.record(query, System.nanoTime() - start, rows, bytes, failed);
+		}
+	}
+
+	/**
+	 * Write rows over one pooled connection in batches of <code>batchSize</code> rows, each committed in its own transaction, then drop the cached results of the table.  Each row must hold <code>width</code> values; rows are checked as they are read, so a bad row fails its own batch and leaves the earlier batches committed.
+	 * @return the number of rows written.
+	 */
+	private int runBatches(String table, int width, String prefix, String row, String suffix, Iterable<Object[]> rows) throws SQLException {
+		long start = System.nanoTime();
+		int written = 0;
+		boolean failed = true;
+
+		Connection c = pool.borrow();
+		try {
+			c.setAutoCommit(false);
+			ArrayList<Object[]> batch = new ArrayList<Object[]>(batchSize);
+			long read = 0;
+			for(Object[] values : rows) {
+				if(values == null || values.length != width) {
+					throw new SQLException("Row " + read + " for " + table + " holds " + ((values == null) ? 0 : values.length) + " values for " + width + " columns");
+				}
+				read++;
+				batch.add(values);
+				if(batch.size() == batchSize) {
+					written += writeBatch(c, prefix, row, suffix, batch);
+					batch.clear();
+				}
+			}
+			if(!batch.isEmpty()) {
+				written += writeBatch(c, prefix, row, suffix, batch);
+			}
+			c.setAutoCommit(true);
+			failed = false;
+		} catch (SQLException e) {
+			c.rollback();
+			throw e;
+		} finally {
+			pool.release(c);
+			metrics.record(prefix + row + suffix, System.nanoTime() - start, written, 0, failed);
+			SQLResultCache cache = resultCache;
+			if(cache != null) {
+				cache.invalidate(table);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Write one batch of rows in its own transaction, as multi-row statements when batches are rewritten.
+	 */
+	private int writeBatch(Connection c, String prefix, String row, String suffix, ArrayList<Object[]> batch) throws SQLException {
+		if(rewriteBatches && !pool.getURL().contains("rewriteBatchedStatements=true")) {
+			int perStatement = Math.max(1, Math.min(batchSize, maxPlaceholders / batch.get(0).length));
+			for(int from = 0; from < batch.size(); from += perStatement) {
+				List<Object[]> rows = batch.subList(from, Math.min(batch.size(), from + perStatement));
+				StringBuilder query = new StringBuilder(prefix.length() + rows.size() * (row.length() + 2) + suffix.length());
+				query.append(prefix);
+				for(int r = 0; r < rows.size(); r++) {
+					query.append(r > 0 ? ", " : "").append(row);
+				}
+				query.append(suffix);
+				// only full-size statements are cached, so a short final statement does not take a cache slot for each length
+				boolean full = rows.size() == perStatement;
+				PreparedStatement s = full ? pool.prepare(c, query.toString()) : c.prepareStatement(query.toString());
+				try {
+					int p = 1;
+					for(Object[] values : rows) {
+						for(Object v : values) {
+							s.setObject(p++, v);
+						}
+					}
+					s.executeUpdate();
+				} finally {
+					if(full) {
+						pool.finish(s);
+					} else {
+						s.close();
+					}
+				}
+			}
+		} else {
+			PreparedStatement s = pool.prepare(c, prefix + row + suffix);
+			try {
+				for(Object[] values : batch) {
+					for(int i = 0; i < values.length; i++) {
+						s.setObject(i + 1, values[i]);
+					}
+					s.addBatch();
+				}
+				s.executeBatch();
+			} finally {
+				s.clearBatch();
+				pool.finish(s);
+			}
+		}
+		c.commit();
+		return batch.size();
+	}
+
+	private static boolean isIntegral(int sqlType) {
+		switch(sqlType) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * MySQL's driver reads the whole result into memory unless the fetch size is <code>Integer.MIN_VALUE</code>, which streams row by row, or the URL enables server-side cursors, which honor the fetch size.  Other drivers honor the fetch size directly.
+	 */
+	private int streamingFetchSize(SQLConnectionPool source) {
+		String url = source.getURL();
+		if(url.startsWith("jdbc:mysql:") && !url.contains("useCursorFetch=true")) {
+			return Integer.MIN_VALUE;
+		}
+		return fetchSize;
+	}
+
+	private static void checkColumns(String[] colNames) {
+		if(colNames == null || colNames.length == 0) {
+			throw new IllegalArgumentException("At least one column is required");
+		}
+	}
+
+	private static String join(String[] colNames) {
+		String cols = "";
+		for(int i = 0; i < colNames.length; i++) {
+			cols += (i > 0 ? ", " : "") + colNames[i];
+		}
+		return cols;
+	}
+
+	private static String placeholders(int n) {
+		String marks = "";
+		for(int i = 0; i < n; i++) {
+			marks += (i > 0 ? ", ?" : "?");
+		}
+		return marks;
+	}
+
+	/**
+	 * Build a WHERE clause joining each condition with AND and collect the values bound to its placeholders.  IN takes a comma-separated list of values and BETWEEN takes two values separated by AND.
+	 */
+	private static String where(String[] whereFields, String[] whereOperators, String[] whereValues, ArrayList<Object> params) {
+		if(whereFields == null || whereFields.length == 0) {
+			return "";
+		}
+		String clause = " WHERE ";
+		for(int i = 0; i < whereFields.length; i++) {
+			String op = whereOperators[i].trim();
+			clause += (i > 0 ? " AND " : "") + whereFields[i] + " " + op + " ";
+			if(op.equalsIgnoreCase("IN") || op.equalsIgnoreCase("NOT IN")) {
+				String[] values = whereValues[i].split(",");
+				for(String v : values) {
+					params.add(v.trim());
+				}
+				clause += "(" + placeholders(values.length) + ")";
+			} else if(op.equalsIgnoreCase("BETWEEN")) {
+				String[] range = whereValues[i].split("(?i)\\s+AND\\s+", 2);
+				params.add(range[0].trim());
+				params.add(range.length > 1 ? range[1].trim() : null);
+				clause += "? AND ?";
+			} else {
+				params.add(whereValues[i]);
+				clause += "?";
+			}
+		}
+		return clause;
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SQLHelperStress {
+
+	/**
+	 * Hammer one shared SQLHelper from many threads against an in-memory H2 database, then check that no rows were lost or misread and no connections leaked.
+	 * Each thread cycles through single-row INSERTs, cached COUNT(*) reads of its own rows, streamed scans of its own rows and 10-row insertBatch calls, checking after every read that it sees exactly the rows it has written so far.
+	 * Run with <code>lib/h2-2.2.224.jar</code> on the class path; the optional arguments are the number of threads (16) and the operations per thread (400).  Exits with status 1 if any check fails.
+	 * @param args the number of threads and the operations per thread.
+	 */
+	public static void main(String[] args) throws Exception {
+		final int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		final int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 400;
+		final int batchRows = 10;
+
+		// H2's MySQL mode can hand out duplicate AUTO_INCREMENT keys to concurrent inserts, so the database runs in its default mode
+		SQLConnectionPool pool = new SQLConnectionPool("jdbc:h2:mem:stress;DB_CLOSE_DELAY=-1", "sa", "", 1, 8);
+		final SQLHelper sql = new SQLHelper(pool);
+		sql.setResultCache(new SQLResultCache());
+		sql.setBatchSize(4);	// several batches per insertBatch call
+		sql.query("CREATE TABLE stress (id BIGINT AUTO_INCREMENT PRIMARY KEY, worker INT NOT NULL, seq INT NOT NULL, kind VARCHAR(8) NOT NULL)", new Object[0]);
+
+		final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Integer>> written = new ArrayList<Future<Integer>>();
+		long start = System.currentTimeMillis();
+		for(int t = 0; t < threads; t++) {
+			final int worker = t;
+			written.add(workers.submit(new Callable<Integer>() {
+				public Integer call() {
+					int rows = 0;
+					for(int i = 0; i < operations; i++) {
+						try {
+							switch(i % 4) {
+							case 0:
+								sql.query("INSERT INTO stress (worker, seq, kind) VALUES (?, ?, 'single')", worker, i);
+								rows++;
+								break;
+							case 1:
+								for(int read = 0; read < 2; read++) {	// the second read may be answered from the cache
+									ResultSet r = sql.query("SELECT COUNT(*) FROM stress WHERE worker = ?", worker);
+									r.next();
+									if(r.getInt(1) != rows) {
+										failures.add("Worker " + worker + " counted " + r.getInt(1) + " rows after writing " + rows);
+									}
+								}
+								break;
+							case 2:
+								final int[] seen = new int[1];
+								long streamed = sql.stream("SELECT seq FROM stress WHERE worker = ? ORDER BY id", new SQLHelper.RowHandler() {
+									public void handle(ResultSet row) throws SQLException {
+										seen[0]++;
+									}
+								}, worker);
+								if(streamed != rows || seen[0] != rows) {
+									failures.add("Worker " + worker + " streamed " + seen[0] + " rows after writing " + rows);
+								}
+								break;
+							default:
+								ArrayList<Object[]> batch = new ArrayList<Object[]>();
+								for(int b = 0; b < batchRows; b++) {
+									batch.add(new Object[] {worker, i, "batch"});
+								}
+								rows += sql.insertBatch("stress", new String[] {"worker", "seq", "kind"}, batch);
+								break;
+							}
+						} catch (SQLException e) {
+							failures.add("Worker " + worker + " failed: " + e.getMessage());
+						}
+					}
+					return rows;
+				}
+			}));
+		}
+
+		HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		long total = 0;
+		for(int t = 0; t < threads; t++) {
+			expected.put(t, written.get(t).get());
+			total += expected.get(t);
+		}
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+		long millis = System.currentTimeMillis() - start;
+
+		int perWorker = (operations + 3) / 4 + batchRows * (operations / 4);	// one row per single INSERT, batchRows per insertBatch
+		ResultSet counts = sql.query("SELECT worker, COUNT(*) FROM stress GROUP BY worker", new Object[0]);
+		long counted = 0;
+		while(counts.next()) {
+			int worker = counts.getInt(1);
+			counted += counts.getInt(2);
+			if(counts.getInt(2) != perWorker || !expected.containsKey(worker) || expected.get(worker) != perWorker) {
+				failures.add("Worker " + worker + " has " + counts.getInt(2) + " rows, expected " + perWorker);
+			}
+		}
+		if(counted != total || total != (long) perWorker * threads) {
+			failures.add("Table has " + counted + " rows, expected " + (long) perWorker * threads);
+		}
+		if(pool.getActiveCount() != 0) {
+			failures.add(pool.getActiveCount() + " connections were never returned to the pool");
+		}
+		if(pool.getIdleCount() > pool.getMaxSize() || pool.getOpenCount() > pool.getMaxSize()) {
+			failures.add("Pool holds " + pool.getOpenCount() + " connections (" + pool.getIdleCount() + " idle), more than its maximum of " + pool.getMaxSize());
+		}
+
+		System.out.println(threads + " threads x " + operations + " operations in " + millis + " ms: " + counted + " rows, " + pool.getActiveCount() + " active and " + pool.getIdleCount() + " idle connections");
+		System.out.println(sql.getResultCache().getHits() + " cache hits, " + sql.getResultCache().getMisses() + " misses");
+		pool.close();
+		for(String f : failures) {
+			System.out.println("FAILED: " + f);
+		}
+		System.out.println(failures.isEmpty() ? "PASSED" : failures.size() + " checks FAILED");
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+
+}
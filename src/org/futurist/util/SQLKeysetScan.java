@@ -0,0 +1,222 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class SQLKeysetScan implements Iterator<Object[]>, AutoCloseable {
+
+	private static final ExecutorService prefetcher = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SQLKeysetScan prefetch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private SQLHelper sql;
+	private String firstQuery;
+	private String nextQuery;
+	private int columns;	// the number of columns returned to the caller; the key may follow them
+	private int width;	// the number of columns selected
+	private int keyIndex;
+	private int pageSize;
+	private boolean prefetch;
+
+	private ArrayList<Object[]> page;
+	private int position;
+	private boolean last;	// true once a short page shows there is nothing after it
+	private boolean closed;
+	private Future<ArrayList<Object[]>> next;
+	private volatile long pages;
+	private long rows;
+
+	/**
+	 * Default constructor to scan a table in pages of rows ordered by its key, e.g. the primary key.  Each page is a separate short query, <code>SELECT ... WHERE key &gt; ? ORDER BY key LIMIT n</code>, that starts after the last key of the page before, so no lock or snapshot is held between pages and memory use is bounded by the page size.  Rows inserted behind the scan's position are not seen.
+	 * Pages are streamed straight from the database rather than through the result cache, so a long scan neither evicts cached results nor reads stale pages.
+	 * @param helper the SQLHelper of the database.
+	 * @param table the table to scan.
+	 * @param colNames the names of the columns of each row.
+	 * @param keyColumn the name of a unique, indexed column to page by.
+	 * @param size the number of rows per page.
+	 * @param prefetchNext true to fetch the next page on another thread while the current page is read.
+	 */
+	public SQLKeysetScan(SQLHelper helper, String table, String[] colNames, String keyColumn, int size, boolean prefetchNext) {
+		if(size < 1) {
+			throw new IllegalArgumentException("Page size must be positive: " + size);
+		}
+		sql = helper;
+		pageSize = size;
+		prefetch = prefetchNext;
+		columns = colNames.length;
+
+		String cols = "";
+		keyIndex = -1;
+		for(int i = 0; i < colNames.length; i++) {
+			cols += (i > 0 ? ", " : "") + colNames[i];
+			if(colNames[i].equalsIgnoreCase(keyColumn)) {
+				keyIndex = i;
+			}
+		}
+		if(keyIndex < 0) {
+			cols += ", " + keyColumn;
+			keyIndex = colNames.length;
+		}
+		width = Math.max(columns, keyIndex + 1);
+		firstQuery = "SELECT " + cols + " FROM " + table + " ORDER BY " + keyColumn + " LIMIT " + pageSize;
+		nextQuery = "SELECT " + cols + " FROM " + table + " WHERE " + keyColumn + " > ? ORDER BY " + keyColumn + " LIMIT " + pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(closed) {
+			return false;
+		}
+		if(page == null) {
+			page = fetch(null);
+			startPrefetch();
+		}
+		while(position == page.size()) {
+			if(last) {
+				return false;
+			}
+			page = nextPage();
+			position = 0;
+			startPrefetch();
+		}
+		return true;
+	}
+
+	/**
+	 * Get the next row.  Rows hold the requested columns in order.
+	 * @return the values of the next row.
+	 * @throws IllegalStateException if a page cannot be read, with the <code>SQLException</code> as its cause.
+	 */
+	@Override
+	public Object[] next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Object[] row = page.get(position++);
+		rows++;
+		if(row.length > columns) {
+			Object[] values = new Object[columns];
+			System.arraycopy(row, 0, values, 0, columns);
+			return values;
+		}
+		return row;
+	}
+
+	/**
+	 * Get the remaining rows as a sequential stream.  Closing the stream closes the scan.
+	 * @return the stream of rows.
+	 */
+	public Stream<Object[]> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * @return the number of pages fetched so far
+	 */
+	public long getPageCount() {
+		return pages;
+	}
+
+	/**
+	 * @return the number of rows returned so far
+	 */
+	public long getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * Stop the scan, abandoning any page being prefetched.  A closed scan has no more rows and runs no more queries, even if it was closed before its first page was read.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if(next != null) {
+			next.cancel(true);
+			next = null;
+		}
+	}
+
+	private void startPrefetch() {
+		if(page.size() < pageSize) {
+			last = true;
+		}
+		if(!prefetch || last) {
+			return;
+		}
+		final Object key = page.get(page.size() - 1)[keyIndex];
+		next = prefetcher.submit(new Callable<ArrayList<Object[]>>() {
+			public ArrayList<Object[]> call() {
+				return fetch(key);
+			}
+		});
+	}
+
+	private ArrayList<Object[]> nextPage() {
+		if(next == null) {
+			return fetch(page.get(page.size() - 1)[keyIndex]);
+		}
+		try {
+			return next.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while fetching the next page", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			next = null;
+		}
+	}
+
+	private ArrayList<Object[]> fetch(Object after) {
+		try {
+			final ArrayList<Object[]> fetched = new ArrayList<Object[]>(pageSize);
+			SQLHelper.RowHandler handler = new SQLHelper.RowHandler() {
+				public void handle(ResultSet r) throws SQLException {
+					Object[] row = new Object[width];
+					for(int c = 0; c < width; c++) {
+						row[c] = r.getObject(c + 1);
+					}
+					fetched.add(row);
+				}
+			};
+			if(after == null) {
+				sql.stream(firstQuery, handler);
+			} else {
+				sql.stream(nextQuery, handler, after);
+			}
+			pages++;
+			return fetched;
+		} catch (SQLException e) {
+			throw new IllegalStateException("Unable to read page " + (pages + 1) + ": " + e.getMessage(), e);
+		}
+	}
+
+}
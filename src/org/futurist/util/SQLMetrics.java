@@ -0,0 +1,426 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class SQLMetrics implements SQLMetricsMXBean {
+
+	public static final long defaultSlowQueryThreshold = 1000;	// 1 second
+	public static final int defaultSlowQueryLogSize = 128;
+	public static final int maxShapes = 1000;	// statements beyond this many distinct shapes are counted together
+	public static final String otherShape = "(other)";
+
+	private static final Pattern literals = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.|\"\")*\"|\\b\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?\\b");
+	private static final Pattern repeatedRows = Pattern.compile("(\\([?, ]+\\))(?:\\s*,\\s*\\1)+");
+	private static final Pattern repeatedValues = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+	private ConcurrentHashMap<String, Tracker> trackers;
+	private ConcurrentHashMap<String, String> shapes;	// raw SQL to shape, so each distinct SQL string is only parsed once
+	private AtomicReferenceArray<SlowQuery> slowLog;
+	private AtomicLong slowCount;
+	private volatile long slowThresholdNanos;
+
+	/**
+	 * Running statistics of one statement shape.
+	 */
+	private static class Tracker {
+		LatencyHistogram latency = new LatencyHistogram();
+		AtomicLong rows = new AtomicLong();
+		AtomicLong bytes = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+	}
+
+	/**
+	 * Snapshot of the statistics of one statement shape.  Latencies are in ms.
+	 */
+	public static class StatementStats {
+		private String shape;
+		private long count;
+		private long errors;
+		private long rows;
+		private long bytes;
+		private double mean;
+		private double p50;
+		private double p90;
+		private double p99;
+		private double max;
+
+		StatementStats(String s, Tracker t) {
+			shape = s;
+			count = t.latency.getCount();
+			errors = t.errors.get();
+			rows = t.rows.get();
+			bytes = t.bytes.get();
+			mean = t.latency.getMean() / 1000.0;
+			p50 = t.latency.getPercentile(50) / 1000.0;
+			p90 = t.latency.getPercentile(90) / 1000.0;
+			p99 = t.latency.getPercentile(99) / 1000.0;
+			max = t.latency.getMax() / 1000.0;
+		}
+
+		/**
+		 * @return the SQL of the statement with every literal value replaced by <code>?</code>
+		 */
+		public String getShape() {
+			return shape;
+		}
+
+		/**
+		 * @return the number of times the statement ran
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the number of times the statement failed
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * @return the number of rows returned, or for writes the number of rows changed
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the estimated number of bytes fetched, from the column types of the results
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the mean latency in ms
+		 */
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 * @return the median latency in ms
+		 */
+		public double getP50() {
+			return p50;
+		}
+
+		/**
+		 * @return the 90th percentile latency in ms
+		 */
+		public double getP90() {
+			return p90;
+		}
+
+		/**
+		 * @return the 99th percentile latency in ms
+		 */
+		public double getP99() {
+			return p99;
+		}
+
+		/**
+		 * @return the largest latency in ms
+		 */
+		public double getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d calls, %d errors, %d rows, %d bytes, mean %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms: %s", count, errors, rows, bytes, mean, p50, p90, p99, max, shape);
+		}
+	}
+
+	/**
+	 * One statement that ran longer than the slow query threshold.
+	 */
+	public static class SlowQuery {
+		private String sql;
+		private long time;
+		private double millis;
+		private long rows;
+		private boolean failed;
+
+		SlowQuery(String s, long t, double ms, long r, boolean f) {
+			sql = s;
+			time = t;
+			millis = ms;
+			rows = r;
+			failed = f;
+		}
+
+		/**
+		 * @return the SQL of the statement, without its bound values
+		 */
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * @return the time the statement finished, in ms since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return how long the statement took in ms
+		 */
+		public double getMillis() {
+			return millis;
+		}
+
+		/**
+		 * @return the number of rows returned or changed
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return true if the statement failed
+		 */
+		public boolean isFailed() {
+			return failed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%tF %<tT %.3f ms, %d rows%s: %s", time, millis, rows, failed ? ", failed" : "", sql);
+		}
+	}
+
+	/**
+	 * Default constructor to collect statement statistics, logging statements slower than <code>defaultSlowQueryThreshold</code>.
+	 */
+	public SQLMetrics() {
+		this(defaultSlowQueryThreshold, defaultSlowQueryLogSize);
+	}
+
+	/**
+	 * Constructor to collect statement statistics.
+	 * @param slowThreshold the time in ms after which a statement is logged as slow.
+	 * @param slowLogSize the number of slow statements kept; older ones are overwritten.
+	 */
+	public SQLMetrics(long slowThreshold, int slowLogSize) {
+		trackers = new ConcurrentHashMap<String, Tracker>();
+		shapes = new ConcurrentHashMap<String, String>();
+		slowLog = new AtomicReferenceArray<SlowQuery>(slowLogSize);
+		slowCount = new AtomicLong();
+		setSlowQueryThreshold(slowThreshold);
+	}
+
+	/**
+	 * Reduce a statement to its shape: whitespace is collapsed, literal values become <code>?</code> and repeated rows or lists of placeholders are shortened, so that statements differing only in their values are counted together.
+	 * @param sql the SQL of a statement.
+	 * @return the shape of the statement.
+	 */
+	public static String shape(String sql) {
+		String s = literals.matcher(SQLResultCache.normalize(sql)).replaceAll("?");
+		s = repeatedRows.matcher(s).replaceAll("$1, ...");
+		return repeatedValues.matcher(s).replaceAll("?, ...");
+	}
+
+	/**
+	 * Estimate the size of one row of results from the types of its columns.  Variable-length columns count as their declared size, up to 256 bytes.
+	 * @param meta the metadata of the results.
+	 * @return the estimated bytes per row.
+	 * @throws SQLException if the metadata cannot be read.
+	 */
+	public static long estimateRowBytes(ResultSetMetaData meta) throws SQLException {
+		long bytes = 0;
+		for(int c = 1; c <= meta.getColumnCount(); c++) {
+			switch(meta.getColumnType(c)) {
+			case Types.BIT:
+			case Types.BOOLEAN:
+			case Types.TINYINT:
+				bytes += 1;
+				break;
+			case Types.SMALLINT:
+				bytes += 2;
+				break;
+			case Types.DATE:
+			case Types.TIME:
+				bytes += 3;
+				break;
+			case Types.INTEGER:
+			case Types.REAL:
+				bytes += 4;
+				break;
+			case Types.BIGINT:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.TIMESTAMP:
+				bytes += 8;
+				break;
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				bytes += meta.getPrecision(c) / 2 + 1;
+				break;
+			default:
+				int size = meta.getColumnDisplaySize(c);
+				bytes += (size <= 0 || size > 256) ? 256 : size;
+				break;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Record one statement.
+	 * @param sql the SQL of the statement.
+	 * @param nanos how long the statement took in ns.
+	 * @param rows the number of rows returned or changed.
+	 * @param bytes the number of bytes fetched.
+	 * @param failed true if the statement failed.
+	 */
+	public void record(String sql, long nanos, long rows, long bytes, boolean failed) {
+		Tracker t = tracker(sql);
+		t.latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+		t.rows.addAndGet(rows);
+		t.bytes.addAndGet(bytes);
+		if(failed) {
+			t.errors.incrementAndGet();
+		}
+		if(nanos >= slowThresholdNanos) {
+			long n = slowCount.getAndIncrement();
+			slowLog.set((int) (n % slowLog.length()), new SlowQuery(sql, System.currentTimeMillis(), nanos / 1000000.0, rows, failed));
+		}
+	}
+
+	/**
+	 * Register this object with the platform MBean server so that its statistics can be read over JMX.
+	 * @param name the name distinguishing this object from others, e.g. the database name.
+	 * @return the name it was registered under.
+	 * @throws JMException if it cannot be registered, for instance because the name is taken.
+	 */
+	public ObjectName register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("org.futurist.util:type=SQLMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public long getStatementCount() {
+		long n = 0;
+		for(Tracker t : trackers.values()) {
+			n += t.latency.getCount();
+		}
+		return n;
+	}
+
+	public long getErrorCount() {
+		long n = 0;
+		for(Tracker t : trackers.values()) {
+			n += t.errors.get();
+		}
+		return n;
+	}
+
+	public long getSlowQueryCount() {
+		return slowCount.get();
+	}
+
+	public long getSlowQueryThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+	}
+
+	public void setSlowQueryThreshold(long ms) {
+		slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	/**
+	 * Get a snapshot of the statistics of every statement shape, slowest total time first.
+	 * @return the statistics.
+	 */
+	public List<StatementStats> getStatements() {
+		ArrayList<StatementStats> stats = new ArrayList<StatementStats>();
+		for(Map.Entry<String, Tracker> e : trackers.entrySet()) {
+			stats.add(new StatementStats(e.getKey(), e.getValue()));
+		}
+		Collections.sort(stats, new Comparator<StatementStats>() {
+			public int compare(StatementStats a, StatementStats b) {
+				return Double.compare(b.getMean() * b.getCount(), a.getMean() * a.getCount());
+			}
+		});
+		return stats;
+	}
+
+	/**
+	 * Get the statistics of one statement shape.
+	 * @param sql the SQL of a statement with that shape.
+	 * @return the statistics, or <code>null</code> if no such statement has run.
+	 */
+	public StatementStats getStatement(String sql) {
+		String s = shape(sql);
+		Tracker t = trackers.get(s);
+		return (t == null) ? null : new StatementStats(s, t);
+	}
+
+	public List<SlowQuery> getSlowQueries() {
+		ArrayList<SlowQuery> slow = new ArrayList<SlowQuery>();
+		long n = slowCount.get();
+		int size = slowLog.length();
+		for(long i = Math.max(0, n - size); i < n; i++) {
+			SlowQuery q = slowLog.get((int) (i % size));
+			if(q != null) {
+				slow.add(q);
+			}
+		}
+		return slow;
+	}
+
+	public void reset() {
+		trackers.clear();
+		slowCount.set(0);
+		for(int i = 0; i < slowLog.length(); i++) {
+			slowLog.set(i, null);
+		}
+	}
+
+	private Tracker tracker(String sql) {
+		String s = shapes.get(sql);
+		if(s == null) {
+			s = shape(sql);
+			if(shapes.size() < maxShapes * 10) {
+				shapes.put(sql, s);
+			}
+		}
+		Tracker t = trackers.get(s);
+		if(t == null) {
+			if(trackers.size() >= maxShapes) {
+				s = otherShape;
+			}
+			Tracker created = new Tracker();
+			t = trackers.putIfAbsent(s, created);
+			if(t == null) {
+				t = created;
+			}
+		}
+		return t;
+	}
+
+}
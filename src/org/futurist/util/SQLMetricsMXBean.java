@@ -0,0 +1,51 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.util.List;
+
+public interface SQLMetricsMXBean {
+
+	/**
+	 * @return the number of statements run
+	 */
+	long getStatementCount();
+
+	/**
+	 * @return the number of statements that failed
+	 */
+	long getErrorCount();
+
+	/**
+	 * @return the number of statements that took longer than the slow query threshold
+	 */
+	long getSlowQueryCount();
+
+	/**
+	 * @return the time in ms after which a statement is logged as slow
+	 */
+	long getSlowQueryThreshold();
+
+	/**
+	 * @param ms the time in ms after which a statement is logged as slow
+	 */
+	void setSlowQueryThreshold(long ms);
+
+	/**
+	 * @return the statistics of every statement shape
+	 */
+	List<SQLMetrics.StatementStats> getStatements();
+
+	/**
+	 * @return the most recent slow statements, oldest first
+	 */
+	List<SQLMetrics.SlowQuery> getSlowQueries();
+
+	/**
+	 * Forget every statistic and slow statement recorded.
+	 */
+	void reset();
+
+}
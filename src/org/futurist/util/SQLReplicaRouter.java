@@ -0,0 +1,222 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SQLReplicaRouter {
+
+	public static final String defaultLagQuery = "SHOW SLAVE STATUS";
+	public static final String lagColumn = "Seconds_Behind_Master";
+	public static final long defaultLagCheckInterval = 5 * 1000;	// 5 seconds
+
+	private SQLConnectionPool primary;
+	private CopyOnWriteArrayList<Replica> replicas;
+	private AtomicInteger nextStart;	// rotates the starting replica so ties are shared out
+	private volatile long maxLag = -1;	// seconds; negative means replication lag is ignored
+	private volatile String lagQuery = defaultLagQuery;
+	private ScheduledExecutorService lagChecker;
+
+	/**
+	 * One read replica and the number of reads it is serving now.
+	 */
+	private static class Replica {
+		SQLConnectionPool pool;
+		AtomicInteger outstanding = new AtomicInteger();
+		volatile long lag;	// seconds behind the primary, or -1 if unknown
+
+		Replica(SQLConnectionPool p) {
+			pool = p;
+		}
+	}
+
+	/**
+	 * Default constructor to route every statement to the primary until replicas are added.
+	 * @param primaryPool the pool of the primary database, which takes every write.
+	 */
+	public SQLReplicaRouter(SQLConnectionPool primaryPool) {
+		primary = primaryPool;
+		replicas = new CopyOnWriteArrayList<Replica>();
+		nextStart = new AtomicInteger();
+	}
+
+	/**
+	 * @return the pool of the primary database
+	 */
+	public SQLConnectionPool getPrimary() {
+		return primary;
+	}
+
+	/**
+	 * Add a read replica.
+	 * @param replica the pool of the replica.
+	 */
+	public void addReplica(SQLConnectionPool replica) {
+		replicas.add(new Replica(replica));
+	}
+
+	/**
+	 * @return the number of read replicas
+	 */
+	public int getReplicaCount() {
+		return replicas.size();
+	}
+
+	/**
+	 * Skip replicas that are further behind the primary than the given lag, checking every replica's lag on a background thread.  Replicas whose lag is unknown, because the check failed or replication is stopped, are skipped too.
+	 * @param seconds the largest acceptable lag in seconds, or a negative number to stop checking.
+	 * @param intervalMs the time in ms between checks.
+	 */
+	public synchronized void setMaxLag(long seconds, long intervalMs) {
+		maxLag = seconds;
+		if(lagChecker != null) {
+			lagChecker.shutdownNow();
+			lagChecker = null;
+		}
+		if(seconds < 0) {
+			return;
+		}
+		checkLag();
+		lagChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SQLReplicaRouter lag check");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		lagChecker.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				checkLag();
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Set the query that reads a replica's lag.  It must return the lag in seconds in a column named <code>Seconds_Behind_Master</code> or in its first column; a NULL or empty result means replication is not running.  Use <code>SHOW REPLICA STATUS</code> with its <code>Seconds_Behind_Source</code> column aliased on newer MySQL servers.
+	 * @param query the lag query.
+	 */
+	public void setLagQuery(String query) {
+		lagQuery = query;
+	}
+
+	/**
+	 * Choose the pool for a read: the eligible replica serving the fewest reads, or the primary if there is none.  Every pool returned must be handed back to <code>release</code> when the read is done.
+	 * @return the pool to read from.
+	 */
+	public SQLConnectionPool acquireRead() {
+		int n = replicas.size();
+		Replica best = null;
+		int start = (n == 0) ? 0 : Math.abs(nextStart.getAndIncrement() % n);
+		for(int i = 0; i < n; i++) {
+			Replica r;
+			try {
+				r = replicas.get((start + i) % n);
+			} catch (IndexOutOfBoundsException e) {
+				break;
+			}
+			if(maxLag >= 0 && (r.lag < 0 || r.lag > maxLag)) {
+				continue;
+			}
+			if(best == null || r.outstanding.get() < best.outstanding.get()) {
+				best = r;
+			}
+		}
+		if(best == null) {
+			return primary;
+		}
+		best.outstanding.incrementAndGet();
+		return best.pool;
+	}
+
+	/**
+	 * Finish a read started with <code>acquireRead</code>.
+	 * @param pool the pool returned by <code>acquireRead</code>.
+	 */
+	public void release(SQLConnectionPool pool) {
+		for(Replica r : replicas) {
+			if(r.pool == pool) {
+				r.outstanding.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of reads a replica is serving now.
+	 * @param replica the pool of the replica.
+	 * @return the number of reads in progress, or -1 if the pool is not one of the replicas.
+	 */
+	public int getOutstanding(SQLConnectionPool replica) {
+		for(Replica r : replicas) {
+			if(r.pool == replica) {
+				return r.outstanding.get();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the lag of a replica found by the most recent check.
+	 * @param replica the pool of the replica.
+	 * @return the lag in seconds, or -1 if it is unknown or the pool is not one of the replicas.
+	 */
+	public long getLag(SQLConnectionPool replica) {
+		for(Replica r : replicas) {
+			if(r.pool == replica) {
+				return r.lag;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the lag of every replica now.
+	 */
+	public void checkLag() {
+		for(Replica r : replicas) {
+			r.lag = readLag(r.pool);
+		}
+	}
+
+	private long readLag(SQLConnectionPool pool) {
+		Connection c = null;
+		try {
+			c = pool.borrow();
+			Statement s = c.createStatement();
+			try {
+				ResultSet r = s.executeQuery(lagQuery);
+				if(!r.next()) {
+					return -1;
+				}
+				int col = 1;
+				ResultSetMetaData meta = r.getMetaData();
+				for(int i = 1; i <= meta.getColumnCount(); i++) {
+					if(meta.getColumnLabel(i).equalsIgnoreCase(lagColumn)) {
+						col = i;
+					}
+				}
+				long lag = r.getLong(col);
+				return r.wasNull() ? -1 : lag;
+			} finally {
+				s.close();
+			}
+		} catch (SQLException e) {
+			return -1;
+		} finally {
+			pool.release(c);
+		}
+	}
+
+}
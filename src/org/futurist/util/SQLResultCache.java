@@ -0,0 +1,316 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.rowset.CachedRowSet;
+
+public class SQLResultCache {
+
+	public static final int defaultMaxEntries = 1000;
+	public static final long defaultTimeToLive = 60 * 1000;	// 1 minute
+
+	private static final Pattern fromClause = Pattern.compile("\\bFROM\\s+(.+?)(?=\\b(?:WHERE|GROUP|ORDER|LIMIT|HAVING|UNION|JOIN|LEFT|RIGHT|INNER|OUTER|CROSS|NATURAL|STRAIGHT_JOIN)\\b|\\)|;|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern namedTable = Pattern.compile("\\b(?:JOIN|INTO|UPDATE|TABLE)\\s+([`\"\\w.$]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern readStart = Pattern.compile("\\s*(SELECT|WITH|\\()", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern writingClause = Pattern.compile("\\b(?:INTO|FOR\\s+UPDATE|LOCK\\s+IN\\s+SHARE\\s+MODE|FOR\\s+SHARE)\\b", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final String[] verbs = {"SELECT", "INSERT", "UPDATE", "DELETE", "REPLACE", "TABLE", "VALUES"};
+	private static final Pattern nonWriting = Pattern.compile("\\s*(?:SHOW|EXPLAIN|DESCRIBE|DESC|SET|USE|HELP)\\b", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private int maxEntries;
+	private long timeToLive;
+	private LinkedHashMap<String, CachedResult> entries;
+	private long generation;	// bumped on every invalidation, so reads that raced a write are not cached
+	private long hits;
+	private long misses;
+
+	/**
+	 * Cached rows of one query and the tables they came from.
+	 */
+	private static class CachedResult {
+		CachedRowSet rows;
+		HashSet<String> tables;
+		long expires;
+	}
+
+	/**
+	 * Default constructor to create a cache of at most <code>defaultMaxEntries</code> results, each kept for <code>defaultTimeToLive</code>.
+	 */
+	public SQLResultCache() {
+		this(defaultMaxEntries, defaultTimeToLive);
+	}
+
+	/**
+	 * Constructor to create a cache of query results.  When the cache is full the least recently used result is dropped.
+	 * @param max the maximum number of results cached.
+	 * @param ttl the time in ms a result stays valid, even if none of its tables is written.
+	 */
+	public SQLResultCache(int max, long ttl) {
+		maxEntries = max;
+		timeToLive = ttl;
+		entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Check whether a statement only reads, and so may be answered from the cache.  <code>SELECT ... INTO</code> and locking reads are treated as writes, as is a <code>WITH</code> whose common table expressions are followed by anything but a SELECT, e.g. <code>WITH ... UPDATE</code>.
+	 * @param sql the SQL of the statement.
+	 * @return true if the statement is a plain SELECT.
+	 */
+	public static boolean isRead(String sql) {
+		Matcher start = readStart.matcher(sql);
+		if(!start.lookingAt()) {
+			return false;
+		}
+		if(start.group(1).equalsIgnoreCase("WITH") && !isSelect(verbAfter(sql, start.end()))) {
+			return false;
+		}
+		return !writingClause.matcher(sql).find();
+	}
+
+	/**
+	 * Find the statement's verb after its common table expressions: the first SELECT, INSERT, UPDATE, DELETE, REPLACE, TABLE or VALUES outside parentheses and quotes.
+	 * @return the verb, or <code>null</code> if there is none.
+	 */
+	private static String verbAfter(String sql, int from) {
+		int depth = 0;
+		char quote = 0;
+		for(int i = from; i < sql.length(); i++) {
+			char ch = sql.charAt(i);
+			if(quote != 0) {
+				if(ch == quote) {
+					quote = 0;
+				}
+			} else if(ch == '\'' || ch == '"' || ch == '`') {
+				quote = ch;
+			} else if(ch == '(') {
+				depth++;
+			} else if(ch == ')') {
+				depth--;
+			} else if(depth == 0 && Character.isLetter(ch) && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)))) {
+				int end = i;
+				while(end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) {
+					end++;
+				}
+				String word = sql.substring(i, end);
+				for(String verb : verbs) {
+					if(word.equalsIgnoreCase(verb)) {
+						return verb;
+					}
+				}
+				i = end - 1;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isSelect(String verb) {
+		return "SELECT".equals(verb) || "TABLE".equals(verb) || "VALUES".equals(verb);
+	}
+
+	/**
+	 * Find the tables a statement reads or writes, lower-cased and without quotes or database prefixes.
+	 * @param sql the SQL of the statement.
+	 * @return the names of the tables, which is empty if none could be found.
+	 */
+	public static HashSet<String> tables(String sql) {
+		HashSet<String> found = new HashSet<String>();
+		Matcher from = fromClause.matcher(sql);
+		while(from.find()) {
+			for(String t : from.group(1).split(",")) {
+				String name = t.trim().split("\\s+")[0];
+				if(!name.isEmpty() && !name.startsWith("(")) {
+					found.add(tableName(name));
+				}
+			}
+		}
+		Matcher named = namedTable.matcher(sql);
+		while(named.find()) {
+			found.add(tableName(named.group(1)));
+		}
+		return found;
+	}
+
+	/**
+	 * Collapse runs of whitespace outside quoted literals, so that queries differing only in layout share a cache entry.
+	 * @param sql the SQL of a statement.
+	 * @return the normalized SQL.
+	 */
+	public static String normalize(String sql) {
+		StringBuilder normal = new StringBuilder(sql.length());
+		char quote = 0;
+		boolean space = false;
+		for(int i = 0; i < sql.length(); i++) {
+			char ch = sql.charAt(i);
+			if(quote == 0 && Character.isWhitespace(ch)) {
+				space = true;
+				continue;
+			}
+			if(space && normal.length() > 0) {
+				normal.append(' ');
+			}
+			space = false;
+			if(quote == 0 && (ch == '\'' || ch == '"' || ch == '`')) {
+				quote = ch;
+			} else if(ch == quote) {
+				quote = 0;
+			}
+			normal.append(ch);
+		}
+		return normal.toString();
+	}
+
+	/**
+	 * Get a private copy of the cached results of a query.
+	 * @param sql the SQL of the query.
+	 * @param params the values bound to its placeholders.
+	 * @return a disconnected copy of the results positioned before the first row, or <code>null</code> if they are not cached or have expired.
+	 * @throws SQLException if the results cannot be copied.
+	 */
+	public CachedRowSet get(String sql, Object[] params) throws SQLException {
+		String key = key(sql, params);
+		CachedRowSet rows = null;
+		synchronized(this) {
+			CachedResult e = entries.get(key);
+			if(e != null && e.expires < System.currentTimeMillis()) {
+				entries.remove(key);
+				e = null;
+			}
+			if(e == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			rows = e.rows;
+		}
+		return rows.createCopy();
+	}
+
+	/**
+	 * Get the token to pass to <code>put</code> for results about to be read.  Any invalidation between taking the token and the <code>put</code> keeps the results out of the cache, since they may predate the write.
+	 * @return the current invalidation count.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Cache a copy of the results of a query.  Queries whose tables cannot be determined are not cached, since no write could invalidate them.
+	 * @param generation the value of <code>getGeneration</code> taken before the query ran.
+	 * @param sql the SQL of the query.
+	 * @param params the values bound to its placeholders.
+	 * @param rows the results of the query, which are copied and may then be used freely by the caller.
+	 * @throws SQLException if the results cannot be copied.
+	 */
+	public void put(long generation, String sql, Object[] params, CachedRowSet rows) throws SQLException {
+		HashSet<String> read = tables(sql);
+		if(read.isEmpty()) {
+			return;
+		}
+		CachedResult e = new CachedResult();
+		e.rows = rows.createCopy();
+		e.tables = read;
+		e.expires = System.currentTimeMillis() + timeToLive;
+		synchronized(this) {
+			if(generation == this.generation) {
+				entries.put(key(sql, params), e);
+			}
+		}
+	}
+
+	/**
+	 * Drop every cached result read from the given table.
+	 * @param table the name of the table.
+	 */
+	public synchronized void invalidate(String table) {
+		generation++;
+		String name = tableName(table);
+		Iterator<CachedResult> i = entries.values().iterator();
+		while(i.hasNext()) {
+			if(i.next().tables.contains(name)) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drop every cached result read from a table the given statement writes.  If the statement's tables cannot be determined, everything is dropped.  Reads and statements that cannot change data, such as SHOW and EXPLAIN, drop nothing.
+	 * @param sql the SQL of the statement.
+	 */
+	public void invalidateWritten(String sql) {
+		if(isRead(sql) || nonWriting.matcher(sql).lookingAt()) {
+			return;
+		}
+		HashSet<String> written = tables(sql);
+		if(written.isEmpty()) {
+			clear();
+		}
+		for(String t : written) {
+			invalidate(t);
+		}
+	}
+
+	/**
+	 * Drop every cached result.
+	 */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of results cached
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups not answered from the cache
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static String key(String sql, Object[] params) {
+		StringBuilder k = new StringBuilder(normalize(sql));
+		for(Object p : params) {
+			// keep the type so that 1 and "1" are cached separately
+			k.append('\u0000');
+			if(p != null) {
+				k.append(p.getClass().getName()).append(':');
+			}
+			k.append(p instanceof byte[] ? Arrays.toString((byte[]) p) : String.valueOf(p));
+		}
+		return k.toString();
+	}
+
+	private static String tableName(String name) {
+		String n = name.replace("`", "").replace("\"", "").toLowerCase();
+		return n.substring(n.lastIndexOf('.') + 1);
+	}
+
+}
@@ -0,0 +1,330 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class SQLStatusSampler {
+
+	public static final String defaultStatusQuery = "SHOW GLOBAL STATUS";
+	public static final int defaultCapacity = 360;	// an hour of samples at the default interval
+	public static final long defaultInterval = 10 * 1000;	// 10 seconds
+
+	/**
+	 * Server status variables kept by each sample.  Counters only ever grow while the server is up, so their rates are meaningful; gauges are current levels.
+	 */
+	public enum Status {
+		ABORTED_CONNECTS("Aborted_connects", "Aborted Connections", true),
+		BYTES_RECEIVED("Bytes_received", "Bytes Received", true),
+		BYTES_SENT("Bytes_sent", "Bytes Sent", true),
+		COM_DELETE("Com_delete", "Deletes", true),
+		COM_INSERT("Com_insert", "Inserts", true),
+		COM_SELECT("Com_select", "Selects", true),
+		COM_UPDATE("Com_update", "Updates", true),
+		CONNECTIONS("Connections", "Connection Attempts", true),
+		OPEN_FILES("Open_files", "Open Files", false),
+		OPEN_TABLES("Open_tables", "Open Tables", false),
+		QUESTIONS("Questions", "Statements Executed", true),
+		SLOW_QUERIES("Slow_queries", "Slow Queries", true),
+		THREADS_CONNECTED("Threads_connected", "Open Connections", false),
+		THREADS_RUNNING("Threads_running", "Threads Running", false),
+		UPTIME("Uptime", "Uptime", true);
+
+		private final String variable;
+		private final String label;
+		private final boolean counter;
+
+		Status(String v, String l, boolean c) {
+			variable = v;
+			label = l;
+			counter = c;
+		}
+
+		/**
+		 * @return the name of the server status variable
+		 */
+		public String getVariable() {
+			return variable;
+		}
+
+		/**
+		 * @return the human-readable name of the variable
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * @return true if the variable is a cumulative counter; false if it is a gauge
+		 */
+		public boolean isCounter() {
+			return counter;
+		}
+	}
+
+	private static final HashMap<String, Status> byVariable = new HashMap<String, Status>();
+	static {
+		for(Status s : Status.values()) {
+			byVariable.put(s.getVariable().toLowerCase(), s);
+		}
+	}
+
+	/**
+	 * The server status at one moment.
+	 */
+	public static class Sample {
+		private long time;
+		private long[] values;
+
+		Sample(long t) {
+			time = t;
+			values = new long[Status.values().length];
+			Arrays.fill(values, -1);
+		}
+
+		/**
+		 * @return the time the sample was taken, in ms since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Get the value of a status variable.
+		 * @param s the variable.
+		 * @return its value, or -1 if the server did not report it.
+		 */
+		public long get(Status s) {
+			return values[s.ordinal()];
+		}
+
+		/**
+		 * List the given variables one per line as <code>Label:\tvalue</code>, skipping any the server did not report.
+		 * @param shown the variables to list, in order.
+		 * @return the listing.
+		 */
+		public String format(Status... shown) {
+			String results = "";
+			for(Status s : shown) {
+				if(values[s.ordinal()] >= 0) {
+					results += s.getLabel() + ":\t" + values[s.ordinal()] + "\n";
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * List every variable in the sample, as <code>format(Status.values())</code> does.
+		 */
+		@Override
+		public String toString() {
+			return format(Status.values());
+		}
+	}
+
+	private SQLHelper sql;
+	private volatile String statusQuery;	// read by the sampling thread
+	private long interval;
+	private Sample[] samples;
+	private int count;	// samples ever taken; the newest is at (count - 1) % samples.length
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Default constructor to sample the server status every <code>defaultInterval</code> ms, keeping <code>defaultCapacity</code> samples.
+	 * @param helper the SQLHelper of the server to sample.
+	 */
+	public SQLStatusSampler(SQLHelper helper) {
+		this(helper, defaultInterval, defaultCapacity);
+	}
+
+	/**
+	 * Constructor to sample the server status at the given interval.  Sampling does not begin until <code>start</code> is called.
+	 * @param helper the SQLHelper of the server to sample.
+	 * @param ms the interval in ms between samples.
+	 * @param capacity the number of samples kept; older samples are overwritten.
+	 */
+	public SQLStatusSampler(SQLHelper helper, long ms, int capacity) {
+		sql = helper;
+		interval = ms;
+		samples = new Sample[capacity];
+		statusQuery = defaultStatusQuery;
+	}
+
+	/**
+	 * Set the query that reads the status, which must return variable names in its first column and values in its second, e.g. <code>SELECT * FROM performance_schema.global_status</code>.
+	 * @param query the status query.
+	 */
+	public void setStatusQuery(String query) {
+		statusQuery = query;
+	}
+
+	/**
+	 * Begin sampling on a background thread.  A failed sample is skipped and sampling carries on at the next interval.
+	 */
+	public synchronized void start() {
+		if(timer != null) {
+			return;
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SQLStatusSampler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					sample();
+				} catch (SQLException e) {
+					System.out.println("SQLException: " + e.getMessage());
+					System.out.println("SQLState: " + e.getSQLState());
+				}
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop sampling.  The samples already taken are kept.
+	 */
+	public synchronized void stop() {
+		if(timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Read the server status now and add it to the samples.
+	 * @return the new sample.
+	 * @throws SQLException if the status cannot be read.
+	 */
+	public Sample sample() throws SQLException {
+		final Sample s = new Sample(System.currentTimeMillis());
+		sql.stream(statusQuery, new SQLHelper.RowHandler() {
+			public void handle(ResultSet row) throws SQLException {
+				Status status = byVariable.get(row.getString(1).toLowerCase());
+				if(status != null) {
+					try {
+						s.values[status.ordinal()] = Long.parseLong(row.getString(2).trim());
+					} catch (NumberFormatException e) {
+						// leave the value missing
+					}
+				}
+			}
+		});
+		synchronized(this) {
+			samples[count % samples.length] = s;
+			count++;
+		}
+		return s;
+	}
+
+	/**
+	 * @return the newest sample, or <code>null</code> if none has been taken
+	 */
+	public synchronized Sample getLatest() {
+		return (count == 0) ? null : samples[(count - 1) % samples.length];
+	}
+
+	/**
+	 * @return every sample kept, oldest first
+	 */
+	public List<Sample> getSamples() {
+		return getSamples(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Get the samples taken within the given window.
+	 * @param ms the length of the window in ms, ending now.
+	 * @return the samples in the window, oldest first.
+	 */
+	public synchronized List<Sample> getSamples(long ms) {
+		ArrayList<Sample> window = new ArrayList<Sample>();
+		long since = System.currentTimeMillis() - ms;
+		for(int i = Math.max(0, count - samples.length); i < count; i++) {
+			Sample s = samples[i % samples.length];
+			if(ms == Long.MAX_VALUE || s.getTime() >= since) {
+				window.add(s);
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * Get the rate of change of a counter between the two newest samples.
+	 * @param s the counter.
+	 * @return the change per second, or <code>NaN</code> if there are fewer than two samples.
+	 */
+	public double getRate(Status s) {
+		List<Sample> window = getSamples();
+		if(window.size() < 2) {
+			return Double.NaN;
+		}
+		return rate(s, window.subList(window.size() - 2, window.size()));
+	}
+
+	/**
+	 * Get the average rate of change of a counter over the given window.  If the server restarted within the window, only the samples since the restart count.
+	 * @param s the counter.
+	 * @param ms the length of the window in ms, ending now.
+	 * @return the change per second, or <code>NaN</code> if the window holds fewer than two samples.
+	 */
+	public double getRate(Status s, long ms) {
+		return rate(s, getSamples(ms));
+	}
+
+	/**
+	 * @return the rate of statements executed per second between the two newest samples
+	 */
+	public double getQueriesPerSecond() {
+		return getRate(Status.QUESTIONS);
+	}
+
+	/**
+	 * @return the rate of bytes sent and received per second between the two newest samples
+	 */
+	public double getBytesPerSecond() {
+		return getRate(Status.BYTES_SENT) + getRate(Status.BYTES_RECEIVED);
+	}
+
+	/**
+	 * @return the rate of slow queries per second between the two newest samples
+	 */
+	public double getSlowQueriesPerSecond() {
+		return getRate(Status.SLOW_QUERIES);
+	}
+
+	private static double rate(Status s, List<Sample> window) {
+		if(!s.isCounter()) {
+			throw new IllegalArgumentException(s.getVariable() + " is a gauge, not a counter");
+		}
+		int first = 0;
+		for(int i = 1; i < window.size(); i++) {
+			if(window.get(i).get(s) < window.get(i - 1).get(s)) {
+				first = i;	// the counter went backwards, so the server restarted
+			}
+		}
+		if(window.size() - first < 2) {
+			return Double.NaN;
+		}
+		Sample a = window.get(first);
+		Sample b = window.get(window.size() - 1);
+		if(a.get(s) < 0 || b.get(s) < 0 || b.getTime() == a.getTime()) {
+			return Double.NaN;
+		}
+		return (b.get(s) - a.get(s)) * 1000.0 / (b.getTime() - a.getTime());
+	}
+
+}
@@ -0,0 +1,560 @@
+/**
+ * @author Steven L. Moxley
+ * @version 1.0
+ */
+package org.futurist.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SQLTableExporter {
+
+	public enum Format { DELIMITED, COLUMNAR }
+
+	public static final int defaultBufferSize = 1024 * 1024;
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	private SQLHelper sql;
+	private String table;
+	private String[] colNames;
+	private String keyColumn;
+	private int partitions;
+	private Format format;
+	private boolean merge;
+	private String delimiter;
+	private String lineSeparator;
+	private boolean header;
+	private int bufferSize;
+
+	/**
+	 * Throughput of one partition of an export.
+	 */
+	public static class Partition {
+		private int index;
+		private long from;
+		private long to;
+		private File file;
+		private long rows;
+		private long bytes;
+		private long millis;
+
+		Partition(int i, long lo, long hi, File f) {
+			index = i;
+			from = lo;
+			to = hi;
+			file = f;
+		}
+
+		/**
+		 * @return the position of the partition in key order
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the smallest key in the partition's range
+		 */
+		public long getFrom() {
+			return from;
+		}
+
+		/**
+		 * @return the largest key in the partition's range
+		 */
+		public long getTo() {
+			return to;
+		}
+
+		/**
+		 * @return the file the partition was written to, which no longer exists if the partitions were merged
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the number of rows exported
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the number of bytes written, before any compression
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the time in ms the partition took to read and write
+		 */
+		public long getMillis() {
+			return millis;
+		}
+
+		/**
+		 * @return the number of rows exported per second
+		 */
+		public double getRowsPerSecond() {
+			return rows * 1000.0 / Math.max(1, millis);
+		}
+
+		/**
+		 * @return the number of bytes written per second
+		 */
+		public double getBytesPerSecond() {
+			return bytes * 1000.0 / Math.max(1, millis);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Partition %d [%d, %d]: %d rows, %d bytes in %d ms (%.0f rows/s, %.2f MB/s)", index, from, to, rows, bytes, millis, getRowsPerSecond(), getBytesPerSecond() / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * Default constructor to export the given columns of a table by splitting the range of an integer key column into one partition per processor.  Each partition is read by a streamed range query on its own pooled connection, so at most as many partitions run at once as the pool allows.
+	 * @param helper the SQLHelper of the database.
+	 * @param t the table to export.
+	 * @param cols the names of the columns to export.
+	 * @param key the name of an indexed integer column to partition by, usually the primary key.
+	 */
+	public SQLTableExporter(SQLHelper helper, String t, String[] cols, String key) {
+		sql = helper;
+		table = t;
+		colNames = cols;
+		keyColumn = key;
+		partitions = Runtime.getRuntime().availableProcessors();
+		format = Format.DELIMITED;
+		merge = true;
+		delimiter = ",";
+		lineSeparator = "\r\n";
+		header = true;
+		bufferSize = defaultBufferSize;
+	}
+
+	/**
+	 * Set the number of key ranges the table is split into.
+	 * @param n the number of partitions.
+	 */
+	public void setPartitions(int n) {
+		if(n < 1) {
+			throw new IllegalArgumentException("Partition count must be positive: " + n);
+		}
+		partitions = n;
+	}
+
+	/**
+	 * Set whether rows are written as delimited text or in the binary columnar format read by <code>ColumnarFile</code>.
+	 * @param f the output format.
+	 */
+	public void setFormat(Format f) {
+		format = f;
+	}
+
+	/**
+	 * Set whether the partitions are merged into the output file in key order or left as separate files named after it with the partition number inserted before the extension, e.g. <code>out.csv</code> becomes <code>out-00002.csv</code>.
+	 * @param m true to merge the partitions.
+	 */
+	public void setMerge(boolean m) {
+		merge = m;
+	}
+
+	/**
+	 * Set the delimiter between fields of delimited output.  Fields containing it, a quote or a line break are quoted as in RFC 4180.
+	 * @param d the delimiter.
+	 */
+	public void setDelimiter(String d) {
+		delimiter = d;
+	}
+
+	/**
+	 * Set the string written after each record of delimited output.
+	 * @param separator the line separator.
+	 */
+	public void setLineSeparator(String separator) {
+		lineSeparator = separator;
+	}
+
+	/**
+	 * Set whether delimited output starts with a record of column names.  Each partition file gets its own header when partitions are not merged.
+	 * @param h true to write a header.
+	 */
+	public void setHeader(boolean h) {
+		header = h;
+	}
+
+	/**
+	 * Set the size of the buffer of each output file.
+	 * @param size the buffer size in bytes.
+	 */
+	public void setBufferSize(int size) {
+		if(size < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive: " + size);
+		}
+		bufferSize = size;
+	}
+
+	/**
+	 * Export the table.  Delimited output is compressed according to the output file's extension, as for <code>CompressedFiles.openOutput</code>.  If the export fails, its partition files and any partly merged output are deleted.
+	 * @param out the output file, or the name the partition files are derived from if partitions are not merged.
+	 * @return the partitions in key order, with their throughput.
+	 * @throws SQLException if the table cannot be read.
+	 * @throws IOException if the output cannot be written.
+	 */
+	public ArrayList<Partition> export(File out) throws SQLException, IOException {
+		// the columns, key range and rows are all read from the primary and never from the result cache or a replica, which may not have every row yet
+		final String[] names;
+		final byte[] types;
+		long min;
+		long max;
+		boolean empty;
+		SQLConnectionPool primary = sql.getPool();
+		Connection c = primary.borrow();
+		try {
+			Statement s = c.createStatement();
+			try {
+				ResultSet r = s.executeQuery("SELECT " + join(colNames, ", ") + " FROM " + table + " WHERE 1 = 0");
+				ResultSetMetaData meta = r.getMetaData();
+				names = new String[meta.getColumnCount()];
+				types = new byte[names.length];
+				for(int i = 0; i < names.length; i++) {
+					names[i] = meta.getColumnLabel(i + 1);
+					types[i] = columnType(meta.getColumnType(i + 1));
+				}
+				r.close();
+				r = s.executeQuery("SELECT MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + table);
+				r.next();
+				min = r.getLong(1);
+				empty = r.wasNull();
+				max = r.getLong(2);
+				r.close();
+			} finally {
+				s.close();
+			}
+		} finally {
+			primary.release(c);
+		}
+
+		ArrayList<Partition> parts = new ArrayList<Partition>();
+		File dir = out.getAbsoluteFile().getParentFile();
+		if(!empty) {
+			long step = Math.subtractExact(max, min) / partitions + 1;
+			for(int i = 0; i < partitions; i++) {
+				long lo = min + i * step;
+				if(lo > max) {
+					break;
+				}
+				long hi = (i == partitions - 1 || max - lo < step) ? max : lo + step - 1;
+				File f = merge ? File.createTempFile(out.getName() + ".", ".part", dir) : partitionFile(out, i);
+				parts.add(new Partition(i, lo, hi, f));
+			}
+		}
+
+		int threads = Math.max(1, Math.min(parts.size(), sql.getPool().getMaxSize()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		boolean exported = false;
+		try {
+			ArrayList<Future<Partition>> running = new ArrayList<Future<Partition>>();
+			for(final Partition p : parts) {
+				running.add(pool.submit(new Callable<Partition>() {
+					public Partition call() throws SQLException, IOException {
+						return (format == Format.COLUMNAR) ? exportColumnar(p, names, types) : exportDelimited(p, names);
+					}
+				}));
+			}
+			for(Future<Partition> f : running) {
+				f.get();
+			}
+			if(merge) {
+				if(format == Format.COLUMNAR) {
+					mergeColumnar(out, parts, names, types);
+				} else {
+					mergeDelimited(out, parts, names);
+				}
+			}
+			exported = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while exporting " + table, e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			} else if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to export " + table, e.getCause());
+		} finally {
+			// partitions still being written are stopped before their files are removed, so no file is deleted while it is open or recreated afterwards
+			pool.shutdownNow();
+			awaitTermination(pool);
+			if(merge || !exported) {
+				for(Partition p : parts) {
+					p.file.delete();
+				}
+			}
+			if(merge && !exported) {
+				out.delete();
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Wait for every worker to stop, even if this thread is interrupted while waiting; the interrupt is restored afterwards.
+	 */
+	private static void awaitTermination(ExecutorService workers) {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				if(workers.awaitTermination(1, TimeUnit.SECONDS)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Partition exportDelimited(Partition p, String[] names) throws SQLException, IOException {
+		long start = System.currentTimeMillis();
+		OutputStream os;
+		if(merge) {
+			// parts are merged through the output's compressor, so they are written uncompressed
+			os = new BufferedOutputStream(new FileOutputStream(p.file), bufferSize);
+		} else {
+			os = new BufferedOutputStream(Channels.newOutputStream(CompressedFiles.openOutput(p.file, bufferSize, 1)), bufferSize);
+		}
+		final OutputStream out = os;
+		final long[] bytes = new long[1];
+		try {
+			if(header && !merge) {
+				bytes[0] += writeRecord(out, names);
+			}
+			final String[] fields = new String[names.length];
+			p.rows = sql.streamPrimary(rangeQuery(), new SQLHelper.RowHandler() {
+				public void handle(ResultSet row) throws SQLException {
+					for(int c = 0; c < fields.length; c++) {
+						fields[c] = row.getString(c + 1);
+					}
+					try {
+						bytes[0] += writeRecord(out, fields);
+					} catch (IOException e) {
+						throw new SQLException("Unable to write a row", e);
+					}
+				}
+			}, p.from, p.to);
+		} finally {
+			out.close();
+		}
+		p.bytes = bytes[0];
+		p.millis = System.currentTimeMillis() - start;
+		return p;
+	}
+
+	private Partition exportColumnar(Partition p, String[] names, byte[] types) throws SQLException, IOException {
+		long start = System.currentTimeMillis();
+		final ColumnarWriter writer = new ColumnarWriter(p.file, names, types, bufferSize);
+		final Object[] values = new Object[names.length];
+		try {
+			p.rows = sql.streamPrimary(rangeQuery(), new SQLHelper.RowHandler() {
+				public void handle(ResultSet row) throws SQLException {
+					for(int c = 0; c < values.length; c++) {
+						values[c] = row.getObject(c + 1);
+					}
+					try {
+						writer.add(values);
+					} catch (IOException e) {
+						throw new SQLException("Unable to write a row", e);
+					}
+				}
+			}, p.from, p.to);
+		} finally {
+			writer.close();
+		}
+		p.bytes = p.file.length();
+		p.millis = System.currentTimeMillis() - start;
+		return p;
+	}
+
+	private void mergeDelimited(File out, ArrayList<Partition> parts, String[] names) throws IOException {
+		WritableByteChannel writer = CompressedFiles.openOutput(out, bufferSize, Runtime.getRuntime().availableProcessors());
+		try {
+			if(header) {
+				ByteBuffer h = ByteBuffer.wrap(record(names));
+				while(h.hasRemaining()) {
+					writer.write(h);
+				}
+			}
+			for(Partition p : parts) {
+				FileChannel part = FileChannel.open(p.file.toPath(), StandardOpenOption.READ);
+				try {
+					long pos = 0;
+					long size = part.size();
+					while(pos < size) {
+						pos += part.transferTo(pos, size - pos, writer);
+					}
+				} finally {
+					part.close();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Columnar parts each have their own dictionaries, so they are merged by re-adding their rows rather than by concatenating their columns.
+	 */
+	private void mergeColumnar(File out, ArrayList<Partition> parts, String[] names, byte[] types) throws IOException {
+		ColumnarWriter writer = new ColumnarWriter(out, names, types, bufferSize);
+		try {
+			Object[] values = new Object[names.length];
+			for(Partition p : parts) {
+				ColumnarFile part = new ColumnarFile(p.file);
+				try {
+					LongBuffer[] longs = new LongBuffer[names.length];
+					DoubleBuffer[] doubles = new DoubleBuffer[names.length];
+					IntBuffer[] codes = new IntBuffer[names.length];
+					String[][] dictionaries = new String[names.length][];
+					for(int c = 0; c < names.length; c++) {
+						if(types[c] == ColumnarFile.typeString) {
+							dictionaries[c] = part.getDictionary(c);
+						}
+					}
+					// columns are mapped a segment at a time, since a large part's columns cannot be mapped whole
+					long rows = part.getRowCount();
+					for(long from = 0; from < rows; from += ColumnarFile.segmentRows) {
+						int count = (int) Math.min(ColumnarFile.segmentRows, rows - from);
+						for(int c = 0; c < names.length; c++) {
+							if(types[c] == ColumnarFile.typeLong) {
+								longs[c] = part.getLongs(c, from, count);
+							} else if(types[c] == ColumnarFile.typeDouble) {
+								doubles[c] = part.getDoubles(c, from, count);
+							} else {
+								codes[c] = part.getCodes(c, from, count);
+							}
+						}
+						for(int r = 0; r < count; r++) {
+							for(int c = 0; c < names.length; c++) {
+								if(types[c] == ColumnarFile.typeLong) {
+									long l = longs[c].get(r);
+									values[c] = (l == ColumnarFile.missingLong) ? null : (Object) l;
+								} else if(types[c] == ColumnarFile.typeDouble) {
+									double d = doubles[c].get(r);
+									values[c] = Double.isNaN(d) ? null : (Object) d;
+								} else {
+									int code = codes[c].get(r);
+									values[c] = (code == ColumnarFile.missingCode) ? null : dictionaries[c][code];
+								}
+							}
+							writer.add(values);
+						}
+					}
+				} finally {
+					part.close();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private String rangeQuery() {
+		return "SELECT " + join(colNames, ", ") + " FROM " + table + " WHERE " + keyColumn + " >= ? AND " + keyColumn + " <= ? ORDER BY " + keyColumn;
+	}
+
+	private long writeRecord(OutputStream out, String[] fields) throws IOException {
+		byte[] b = record(fields);
+		out.write(b);
+		return b.length;
+	}
+
+	/**
+	 * Encode one record, quoting fields that contain the delimiter, a quote or a line break.  <code>null</code> fields are written empty.
+	 */
+	private byte[] record(String[] fields) {
+		StringBuilder r = new StringBuilder();
+		for(int c = 0; c < fields.length; c++) {
+			if(c > 0) {
+				r.append(delimiter);
+			}
+			String f = fields[c];
+			if(f == null) {
+				continue;
+			}
+			if(f.contains(delimiter) || f.indexOf('"') >= 0 || f.indexOf('\r') >= 0 || f.indexOf('\n') >= 0) {
+				r.append('"').append(f.replace("\"", "\"\"")).append('"');
+			} else {
+				r.append(f);
+			}
+		}
+		r.append(lineSeparator);
+		return r.toString().getBytes(utf8);
+	}
+
+	private static byte columnType(int sqlType) {
+		switch(sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return ColumnarFile.typeLong;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return ColumnarFile.typeDouble;
+		default:
+			return ColumnarFile.typeString;
+		}
+	}
+
+	private static File partitionFile(File out, int i) {
+		String name = out.getName();
+		int dot = name.indexOf('.');
+		String prefix = (dot < 0) ? name : name.substring(0, dot);
+		String suffix = (dot < 0) ? "" : name.substring(dot);
+		return new File(out.getAbsoluteFile().getParentFile(), prefix + "-" + String.format("%05d", i) + suffix);
+	}
+
+	private static String join(String[] values, String separator) {
+		String joined = "";
+		for(int i = 0; i < values.length; i++) {
+			joined += (i > 0 ? separator : "") + values[i];
+		}
+		return joined;
+	}
+
+}
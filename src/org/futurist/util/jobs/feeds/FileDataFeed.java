@@ -1,8 +1,12 @@
 package org.futurist.util.jobs.feeds;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Date;
+import java.util.ArrayList;
 
+import org.futurist.util.DirectoryChange;
+import org.futurist.util.DirectoryWalker;
 import org.futurist.util.math.DataLoader;
 
 public abstract class FileDataFeed extends DataFeed {
@@ -17,6 +21,16 @@ public abstract class FileDataFeed extends DataFeed {
 		output = new File(dataDir + outName);
 	}
 	
+	/**
+	 * Returns the files beneath the given walker's root that were added, modified or deleted since this feed last asked, so that unchanged files need not be read again.
+	 * @param walker the walker whose root and filters select the input files.
+	 * @return the changes since the previous run.
+	 * @throws IOException if the feed's snapshot cannot be read or written.
+	 */
+	protected ArrayList<DirectoryChange> changedFiles(DirectoryWalker walker) throws IOException {
+		return walker.changesSince(new File(output.getPath() + ".snapshot"));
+	}
+	
 	public abstract void readFile();
 	public abstract void writeFile();
 
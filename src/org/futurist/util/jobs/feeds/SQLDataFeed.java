@@ -3,12 +3,15 @@ package org.futurist.util.jobs.feeds;
 import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 
 import org.futurist.util.SQLHelper;
 import org.futurist.util.jobs.Job;
 
 public class SQLDataFeed extends Job {
 
+	public static final int chunkSize = 10000;	// rows held in memory between inserts into the destination
+
 	// source DB variables
 	protected SQLHelper srcSQL;
 	protected String[] srcTables;
@@ -74,12 +77,25 @@ public class SQLDataFeed extends Job {
 		Date now = new Date(System.currentTimeMillis());
 		if(now.after(nextRun)) {
 			for(int t = 0; t < srcTables.length; t++) {
-				ResultSet rs = srcSQL.selectWhere(srcTables[t], srcCols, srcWhereFields, srcWhereOperators, srcWhereValues);
+				// rows are streamed from the source and inserted a chunk at a time, so no more than one chunk of a table is held in memory
+				final String dstTable = dstTables[t];
+				final ArrayList<Object[]> rows = new ArrayList<Object[]>(chunkSize);
 				try {
-					while(rs.next()) {
-						for(Integer c = 0; c < dstCols.length; c++) {
-							dstSQL.insert(dstTables[t], new String[]{c.toString()}, new String[]{rs.getString(c)});
+					srcSQL.streamWhere(srcTables[t], srcCols, srcWhereFields, srcWhereOperators, srcWhereValues, new SQLHelper.RowHandler() {
+						public void handle(ResultSet rs) throws SQLException {
+							Object[] row = new Object[dstCols.length];
+							for(int c = 0; c < dstCols.length; c++) {
+								row[c] = rs.getObject(c + 1);
+							}
+							rows.add(row);
+							if(rows.size() == chunkSize) {
+								dstSQL.insertBatch(dstTable, dstCols, rows);
+								rows.clear();
+							}
 						}
+					});
+					if(!rows.isEmpty()) {
+						dstSQL.insertBatch(dstTable, dstCols, rows);
 					}
 				} catch(SQLException e) {
 					System.out.println("SQLException: " + e.getMessage());
@@ -4,50 +4,56 @@
  */
 package org.futurist.util.math;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class DataLoader {
+import org.futurist.util.ColumnarFile;
+import org.futurist.util.CompressedFiles;
+import org.futurist.util.DelimitedTokenizer;
+
+public class DataLoader implements AutoCloseable {
 
 	private File input;
 	private String delimiter;
 	private ArrayList<String> headers;
 	private ArrayList<String[]> data;
+	private ColumnarFile columns;
 	
 	/**
-	 * Default constructor to load data from the given file by treating each line as a single observation of however many parameters split around the given delimiter.
+	 * Default constructor to load data from the given file by treating each record as a single observation of however many parameters split around the given delimiter.  Quoted parameters may contain the delimiter, line breaks and escaped quotes as described in RFC 4180.  Gzip, zlib and zip files are decompressed transparently.
 	 * @param in the input <code>File</code>.
 	 * @param d the delimiter used to demarcate where one parameter ends and another parameter begins in a single observation.
 	 */
 	public DataLoader(File in, String d) {
 		input = in;
 		delimiter = d;
-		FileReader fileReader;
-		BufferedReader buffReader;
+		headers = new ArrayList<String>();
+		data = new ArrayList<String[]>();
+		if(ColumnarFile.isColumnar(input)) {
+			openColumnar();
+			return;
+		}
 		try {
-			fileReader = new FileReader(input);
-			buffReader = new BufferedReader(fileReader);
-			headers = new ArrayList<String>();
-			data = new ArrayList<String[]>();
-			
-			// read headers
-			if(buffReader.ready()) {
-				String line[] = buffReader.readLine().split(delimiter);
-				for(String h : line) { headers.add(h); }
+			ReadableByteChannel channel = CompressedFiles.openInput(input, DelimitedTokenizer.defaultBufferSize);
+			try {
+				DelimitedTokenizer tokens = new DelimitedTokenizer(channel, delimiter);
+				
+				// read headers
+				if(tokens.next()) {
+					for(String h : tokens.getStrings()) { headers.add(h); }
+				}
+				
+				// read data
+				while(tokens.next()) {
+					data.add(tokens.getStrings());
+				}
+			} finally {
+				channel.close();
 			}
 			
-			// read data
-			while(buffReader.ready()) {
-				data.add(buffReader.readLine().split(delimiter));
-			}
-			
-			buffReader.close();
-			fileReader.close();
-			
 		} catch (IOException e) {
 			
 			e.printStackTrace();
@@ -55,6 +61,63 @@ public class DataLoader {
 		
 	}
 	
+	/**
+	 * Constructor to load data from a binary columnar file written by <code>DelimitedFileConverter.convertToColumnar()</code>.  The file is memory-mapped and columns are read without parsing; observations are only decoded into strings if <code>getData()</code> is called.  The file stays open until <code>close()</code> is called.
+	 * @param in the columnar input <code>File</code>.
+	 */
+	public DataLoader(File in) {
+		input = in;
+		headers = new ArrayList<String>();
+		openColumnar();
+	}
+	
+	private void openColumnar() {
+		data = null;
+		try {
+			columns = new ColumnarFile(input);
+			for(String h : columns.getNames()) { headers.add(h); }
+		} catch (IOException e) {
+			
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns the values of a numeric column.  Numeric columns of columnar files are read straight from the mapped column; their text columns, like every column of a delimited file, are parsed value by value.
+	 * @param header the name of the column.
+	 * @return the column's values, with <code>NaN</code> for missing values.
+	 * @throws IllegalArgumentException if there is no column with the given name.
+	 * @throws NumberFormatException if a value is not a number.
+	 */
+	public double[] getColumn(String header) {
+		int j = headers.indexOf(header);
+		if(j < 0) {
+			throw new IllegalArgumentException("No column named " + header);
+		}
+		if(columns != null) {
+			try {
+				if(columns.getType(j) != ColumnarFile.typeString) {
+					return columns.getDoubleArray(j);
+				}
+				String[] strings = columns.getStringArray(j);
+				double[] values = new double[strings.length];
+				for(int i = 0; i < values.length; i++) {
+					values[i] = strings[i].isEmpty() ? Double.NaN : Double.parseDouble(strings[i]);
+				}
+				return values;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		double[] values = new double[data.size()];
+		for(int i = 0; i < values.length; i++) {
+			String[] obs = data.get(i);
+			values[i] = (j < obs.length && !obs[j].isEmpty()) ? Double.parseDouble(obs[j]) : Double.NaN;
+		}
+		return values;
+	}
+	
 	/**
 	 * Returns the data headers for each column.
 	 * @return the headers read from the first line of the input file.
@@ -68,6 +131,24 @@ public class DataLoader {
 	 * @return the data.
 	 */
 	public ArrayList<String[]> getData() {
+		if(data == null && columns != null) {
+			data = new ArrayList<String[]>();
+			try {
+				String[][] cols = new String[headers.size()][];
+				for(int j = 0; j < cols.length; j++) {
+					cols[j] = columns.getStringArray(j);
+				}
+				for(int i = 0; i < columns.getRowCount(); i++) {
+					String[] obs = new String[cols.length];
+					for(int j = 0; j < cols.length; j++) {
+						obs[j] = cols[j][i];
+					}
+					data.add(obs);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		return data;
 	}
 	
@@ -77,6 +158,7 @@ public class DataLoader {
 	 */
 	public ConcurrentHashMap<String, String[]> getDatasetAsHashMap() {
 		ConcurrentHashMap<String, String[]> dataset = new ConcurrentHashMap<String, String[]>();
+		ArrayList<String[]> data = getData();
 		for(int j = 0; j < headers.size(); j++) {
 			String[] paramObs = new String[data.size()];
 			for(int i = 0; i < data.size(); i++) {
@@ -87,4 +169,15 @@ public class DataLoader {
 		return dataset;
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Close the columnar file, if any, releasing its file handle.  Values already returned remain valid, but columns not yet read can no longer be read.
+	 * @throws IOException if the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(columns != null) {
+			columns.close();
+		}
+	}
+	
+}
\ No newline at end of file